@@ -0,0 +1,68 @@
+package at.searles.fractal;
+
+import at.searles.fractal.data.FractalData;
+import at.searles.fractal.vm.OpcodeTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compiles fractals concurrently. Each worker thread uses its own parser;
+ * parse results are shared via the caches in ParserInstance. Compile errors
+ * complete the returned future exceptionally with a MeelanException.
+ */
+public class CompileService {
+
+    private final Executor executor;
+    private final boolean useUniforms;
+
+    public CompileService() {
+        this(ForkJoinPool.commonPool(), false);
+    }
+
+    /**
+     * @param useUniforms see Fractal.fromData(FractalData, boolean).
+     */
+    public CompileService(Executor executor, boolean useUniforms) {
+        this.executor = executor;
+        this.useUniforms = useUniforms;
+
+        // Singletons of the instruction set (including the ones in meelan)
+        // are created before any task is submitted and hence safely
+        // published to the workers.
+        FractviewInstructionSet.get();
+        FractviewInstructionSet.javaVm();
+        OpcodeTable.get();
+        ParserInstance.get();
+    }
+
+    public CompletableFuture<Fractal> compile(FractalData data) {
+        return CompletableFuture.supplyAsync(() -> Fractal.fromData(data, useUniforms), executor);
+    }
+
+    /**
+     * Parsing happens in the worker as well.
+     */
+    public CompletableFuture<Fractal> compile(String source) {
+        return CompletableFuture.supplyAsync(
+                () -> Fractal.fromData(new FractalData.Builder().setSource(source).commit(), useUniforms),
+                executor);
+    }
+
+    /**
+     * @return futures in the same order as data.
+     */
+    public List<CompletableFuture<Fractal>> compileAll(Collection<FractalData> data) {
+        List<CompletableFuture<Fractal>> futures = new ArrayList<>(data.size());
+
+        for(FractalData item : data) {
+            futures.add(compile(item));
+        }
+
+        return futures;
+    }
+}
@@ -3,11 +3,16 @@ package at.searles.fractal;
 
 import at.searles.fractal.data.FractalData;
 import at.searles.fractal.data.ParameterType;
+import at.searles.fractal.vm.CodeOptimizer;
+import at.searles.fractal.vm.PaletteTable;
+import at.searles.fractal.vm.Uniforms;
+import at.searles.math.Cplx;
 import at.searles.math.Scale;
 import at.searles.math.color.Palette;
 import at.searles.meelan.MeelanException;
 import at.searles.meelan.compiler.IntCode;
 import at.searles.meelan.ops.Instruction;
+import at.searles.meelan.ops.comparison.Equal;
 import at.searles.meelan.optree.Tree;
 import at.searles.meelan.optree.inlined.ExternDeclaration;
 import at.searles.meelan.optree.inlined.Frame;
@@ -18,6 +23,9 @@ import at.searles.meelan.symbols.SymTable;
 import at.searles.meelan.values.Int;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /*
  * When parsing, an instance of ExternData is created.
@@ -59,6 +67,11 @@ public class Fractal {
      */
     private List<Palette> palettes; // updated during compilation
 
+    /**
+     * Precomputed lookup tables of palettes in the same order.
+     */
+    private List<PaletteTable> paletteTables; // updated during compilation
+
     /**
      * For each id that is used for a palette, store its index which
      * correspons to the position in the list before. These data are needed
@@ -82,6 +95,22 @@ public class Fractal {
      */
     private LinkedHashMap<String, Parameter> entries;
 
+    /**
+     * If true, numeric and bool parameters are compiled as uniforms so that
+     * changing their values does not require a compilation.
+     */
+    private final boolean useUniforms;
+
+    private final CodeOptimizer optimizer;
+
+    /**
+     * Index in the uniform table of each parameter that is compiled
+     * as a uniform.
+     */
+    private LinkedHashMap<String, Integer> uniformIndices;
+
+    private double[] uniforms;
+
     // Order of parameters should be as follows:
 
     // final step
@@ -89,8 +118,33 @@ public class Fractal {
 
     private final List<Listener> listeners;
 
+    /**
+     * Incremented with each update. Asynchronous compilations of older
+     * versions are discarded. Only written in the owner thread, read by
+     * compilations to skip outdated work.
+     */
+    private volatile long version;
+
+    /**
+     * Data of the latest asynchronous update that is not yet applied or null.
+     */
+    private FractalData pendingData;
+
+    private CompletableFuture<Fractal> pendingCompilation;
+    private CompletableFuture<Boolean> pendingResult;
+
     public static Fractal fromData(FractalData data) throws MeelanException {
-        Fractal fractal = new Fractal(data, true);
+        return fromData(data, false);
+    }
+
+    /**
+     * @param useUniforms if true, values of numeric parameters (int, real,
+     *                    cplx and color) and bools can be changed without
+     *                    compiling the source again. The code then requires
+     *                    the java vm (see FractviewInstructionSet.javaVm).
+     */
+    public static Fractal fromData(FractalData data, boolean useUniforms) throws MeelanException {
+        Fractal fractal = new Fractal(data, true, useUniforms, CodeOptimizer.get());
 
         // Compilation must happen here to catch compile errors
 
@@ -99,7 +153,14 @@ public class Fractal {
     }
 
     public static Fractal fromSource(String source) throws MeelanException {
-        Fractal fractal = new Fractal(new FractalData.Builder().setSource(source).commit(), false);
+        return fromSource(source, CodeOptimizer.get());
+    }
+
+    /**
+     * @param optimizer eg one without some passes to compare their effect.
+     */
+    public static Fractal fromSource(String source, CodeOptimizer optimizer) throws MeelanException {
+        Fractal fractal = new Fractal(new FractalData.Builder().setSource(source).commit(), false, false, optimizer);
 
         // Compilation must happen here to catch compile errors
 
@@ -107,8 +168,10 @@ public class Fractal {
         return fractal;
     }
 
-    private Fractal(FractalData data, boolean allowInlined) {
+    private Fractal(FractalData data, boolean allowInlined, boolean useUniforms, CodeOptimizer optimizer) {
         this.data = data;
+        this.useUniforms = useUniforms;
+        this.optimizer = optimizer;
 
         this.resolver = new FractalResolver(allowInlined);
 
@@ -176,24 +239,10 @@ public class Fractal {
     }
 
     private void compile() {
-        // update data structures
-        entries = new LinkedHashMap<>();
-
-        entries.put(SOURCE_LABEL, new Parameter(
-                SOURCE_LABEL,
-                SOURCE_DESCRIPTION,
-                data.source(),
-                null,
-                ParameterType.Source,
-                true
-        ));
+        IntCode asmCode = compileAst();
 
-        // placeholder to preserve order. It will be added afterwards
-        entries.put(SCALE_LABEL, null);
-
-        // next instruction will update 'entries' and 'parameterOrder'
-        IntCode asmCode = data.ast().compile(FractviewInstructionSet.get(), resolver);
-        this.code = asmCode.createIntCode();
+        this.code = optimizer.optimize(asmCode.createIntCode()).code;
+        this.uniforms = uniformValues();
 
         // update palette list.
         palettes.clear();
@@ -209,6 +258,15 @@ public class Fractal {
             }
         }
 
+        // tables are shared among identical palettes.
+        List<PaletteTable> tables = new ArrayList<>(palettes.size());
+
+        for(Palette palette : palettes) {
+            tables.add(PaletteTable.get(palette));
+        }
+
+        paletteTables = tables;
+
         // and update scale
 
         // FIXME scales should work like palettes.
@@ -248,10 +306,93 @@ public class Fractal {
         }
     }
 
+    private IntCode compileAst() {
+        if(useUniforms) {
+            try {
+                return compileAst(true, true);
+            } catch(MeelanException e) {
+                // some bool is needed as a constant, eg to select a function.
+            }
+
+            try {
+                return compileAst(true, false);
+            } catch(MeelanException e) {
+                // some parameter is needed as a constant, eg in a select.
+            }
+        }
+
+        return compileAst(false, false);
+    }
+
+    private IntCode compileAst(boolean useUniforms, boolean boolUniforms) {
+        // update data structures
+        entries = new LinkedHashMap<>();
+        uniformIndices = new LinkedHashMap<>();
+
+        entries.put(SOURCE_LABEL, new Parameter(
+                SOURCE_LABEL,
+                SOURCE_DESCRIPTION,
+                data.source(),
+                null,
+                ParameterType.Source,
+                true
+        ));
+
+        // placeholder to preserve order. It will be added afterwards
+        entries.put(SCALE_LABEL, null);
+
+        resolver.useUniforms = useUniforms;
+        resolver.boolUniforms = boolUniforms;
+
+        FractviewInstructionSet instructionSet = useUniforms ? FractviewInstructionSet.javaVm() : FractviewInstructionSet.get();
+
+        // next instruction will update 'entries' and 'parameterOrder'
+        return data.ast().compile(instructionSet, resolver);
+    }
+
+    private double[] uniformValues() {
+        double[] values = new double[uniformIndices.size() * Uniforms.STRIDE];
+
+        for(Map.Entry<String, Integer> entry : uniformIndices.entrySet()) {
+            setUniform(values, entry.getValue(), entries.get(entry.getKey()).value);
+        }
+
+        return values;
+    }
+
+    private static void setUniform(double[] values, int index, Object value) {
+        if(value instanceof Cplx) {
+            values[index * Uniforms.STRIDE] = ((Cplx) value).re();
+            values[index * Uniforms.STRIDE + 1] = ((Cplx) value).im();
+        } else if(value instanceof Boolean) {
+            values[index * Uniforms.STRIDE] = (Boolean) value ? 1 : 0;
+            values[index * Uniforms.STRIDE + 1] = 0;
+        } else {
+            values[index * Uniforms.STRIDE] = ((Number) value).doubleValue();
+            values[index * Uniforms.STRIDE + 1] = 0;
+        }
+    }
+
     public int[] code() {
         return code;
     }
 
+    /**
+     * Values of parameters that are compiled as uniforms. Use with
+     * Program.withUniforms.
+     */
+    public double[] uniforms() {
+        return uniforms;
+    }
+
+    /**
+     * @return true if changing the value of parameter id does not require
+     * a compilation.
+     */
+    public boolean isUniform(String id) {
+        return uniformIndices.containsKey(id);
+    }
+
     /**
      * Since palettes must be transferred directly to the script, convenience method
      * to collect all palettes
@@ -260,6 +401,13 @@ public class Fractal {
         return palettes;
     }
 
+    /**
+     * Lookup tables for palettes(), in the same order.
+     */
+    public List<PaletteTable> paletteTables() {
+        return paletteTables;
+    }
+
     public List<Scale> scales() {
         return scales;
     }
@@ -289,6 +437,8 @@ public class Fractal {
 
         if(key.equals(SOURCE_LABEL)) {
             setData(this.data.copySetSource((String) value), true, false);
+        } else if(value != null && isUniform(key)) {
+            setUniformValue(current, value);
         } else {
             FractalData newData = value != null ? data.copySetParameter(key, value) : data.copyResetParameter(key);
             setData(newData, true, false);
@@ -310,6 +460,8 @@ public class Fractal {
     }
 
     void setData(FractalData data, boolean storeInHistory, boolean isRollback) {
+        supersedePendingUpdates();
+
         FractalData oldData = this.data;
         this.data = data;
 
@@ -338,6 +490,174 @@ public class Fractal {
         }
     }
 
+    /**
+     * Patches the value of a uniform in the code instead of compiling it.
+     */
+    private void setUniformValue(Parameter current, Object value) {
+        supersedePendingUpdates();
+
+        FractalData newData = data.copySetParameter(current.id, value);
+
+        double[] newUniforms = uniforms.clone();
+        setUniform(newUniforms, uniformIndices.get(current.id), value);
+
+        int[] newCode = Uniforms.patch(code, newUniforms);
+
+        if(newCode == null) {
+            setData(newData, true, false);
+            return;
+        }
+
+        this.data = newData;
+        this.code = newCode;
+        this.uniforms = newUniforms;
+
+        entries.put(current.id, new Parameter(current.id, current.description, value, current.ast, current.type, false));
+
+        history.add(++historyIndex, this.data);
+
+        notifyFractalModified();
+    }
+
+    // === Asynchronous Updates ===
+
+    // A fractal is not thread safe; all methods must be called from the
+    // thread that owns it (eg the ui thread). Asynchronous updates only
+    // compile a separate instance in an executor. The result is applied
+    // in the owner thread, hence fields, history and listeners are never
+    // accessed concurrently.
+
+    /**
+     * Like updateValue, but the compilation runs in executor. Values of
+     * uniforms are patched right away. Otherwise, if there are pending
+     * updates, the value is applied on top of the latest one.
+     *
+     * @param owner runs tasks in the thread that owns this fractal.
+     * @return a future that is true if this version was applied and false
+     * if it was superseded by a later update. Compile errors complete it
+     * exceptionally.
+     */
+    public CompletableFuture<Boolean> updateValueAsync(String key, Object value, Executor executor, Executor owner) {
+        Parameter current = entries.get(key);
+
+        if(current == null || (value != null && !current.type.isInstance(value))) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if(pendingData == null) {
+            // data is the latest version, hence the synchronous paths apply.
+            if(!key.equals(SOURCE_LABEL) && value != null && isUniform(key)) {
+                setUniformValue(current, value);
+                return CompletableFuture.completedFuture(true);
+            }
+        }
+
+        FractalData base = pendingData != null ? pendingData : data;
+        FractalData newData;
+
+        if(key.equals(SOURCE_LABEL)) {
+            newData = base.copySetSource((String) value);
+        } else {
+            newData = value != null ? base.copySetParameter(key, value) : base.copyResetParameter(key);
+        }
+
+        return setDataAsync(newData, executor, owner);
+    }
+
+    /**
+     * Compiles data in executor and then replaces the current data by it
+     * in owner. Only the latest of successive updates is applied: a
+     * superseded update that did not start yet does not compile, the result
+     * of one that is already compiling is discarded. The futures of
+     * superseded updates complete with false right away. Listeners are
+     * notified in owner once per applied version.
+     *
+     * Updates are coalesced but not delayed. To debounce bursts (eg while
+     * dragging a slider), pass an executor that delays its tasks; updates
+     * that are superseded in the meantime are skipped.
+     *
+     * @param owner runs tasks in the thread that owns this fractal.
+     */
+    public CompletableFuture<Boolean> setDataAsync(FractalData newData, Executor executor, Executor owner) {
+        long requested = ++version;
+        pendingData = newData;
+
+        cancelPendingCompilation();
+
+        boolean allowInlined = resolver.allowInlined;
+
+        // compile into a separate instance so that this one stays valid.
+        CompletableFuture<Fractal> compilation = CompletableFuture.supplyAsync(() -> {
+            if(requested != version) {
+                return null;
+            }
+
+            Fractal compiled = new Fractal(newData, allowInlined, useUniforms, optimizer);
+            compiled.compile();
+            return compiled;
+        }, executor);
+
+        CompletableFuture<Boolean> result = compilation.handleAsync((compiled, error) -> {
+            if(requested != version) {
+                return false;
+            }
+
+            pendingData = null;
+            pendingCompilation = null;
+            pendingResult = null;
+
+            if(error != null) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+
+            adopt(compiled);
+            notifyFractalModified();
+
+            return true;
+        }, owner);
+
+        pendingCompilation = compilation;
+        pendingResult = result;
+
+        return result;
+    }
+
+    /**
+     * Called on synchronous updates so that pending asynchronous ones are discarded.
+     */
+    private void supersedePendingUpdates() {
+        version++;
+        pendingData = null;
+        cancelPendingCompilation();
+    }
+
+    private void cancelPendingCompilation() {
+        if(pendingCompilation != null) {
+            pendingCompilation.cancel(false);
+            pendingResult.complete(false);
+            pendingCompilation = null;
+            pendingResult = null;
+        }
+    }
+
+    /**
+     * Takes over the compiled state of fractal and stores its data in the history.
+     */
+    private void adopt(Fractal fractal) {
+        this.data = fractal.data;
+        this.palettes = fractal.palettes;
+        this.paletteTables = fractal.paletteTables;
+        this.paletteIds = fractal.paletteIds;
+        this.scales = fractal.scales;
+        this.scaleIndices = fractal.scaleIndices;
+        this.entries = fractal.entries;
+        this.uniformIndices = fractal.uniformIndices;
+        this.uniforms = fractal.uniforms;
+        this.code = fractal.code;
+
+        history.add(++historyIndex, this.data);
+    }
+
     // === Handle History ===
 
     boolean historyForward() {
@@ -399,7 +719,17 @@ public class Fractal {
          */
         private String lastLabel;
 
-        private final boolean allowInlined;
+        final boolean allowInlined;
+
+        /**
+         * If true, numeric parameters are compiled as uniforms.
+         */
+        private boolean useUniforms;
+
+        /**
+         * If true, bools are compiled as uniforms too.
+         */
+        private boolean boolUniforms;
 
         FractalResolver(boolean allowInlined) {
             this.allowInlined = allowInlined;
@@ -448,6 +778,10 @@ public class Fractal {
                 ast = paletteLambda(decl.id);
             } else if(type == ParameterType.Scale) {
                 ast = registerScale(decl.id);
+            } else if(isUniformType(type)) {
+                int index = uniformIndices.size();
+                uniformIndices.put(decl.id, index);
+                ast = uniform(index, type, value);
             } else {
                 ast = type.toTree(value);
             }
@@ -455,6 +789,29 @@ public class Fractal {
             return new Parameter(decl.id, decl.description, value, ast, type, isDefault);
         }
 
+        private boolean isUniformType(ParameterType type) {
+            if(!useUniforms) {
+                return false;
+            }
+
+            return type == ParameterType.Int || type == ParameterType.Real
+                    || type == ParameterType.Cplx || type == ParameterType.Color
+                    || boolUniforms && type == ParameterType.Bool;
+        }
+
+        /**
+         * Bools are loaded as ints and compared to 1, hence they
+         * select branches at runtime.
+         */
+        private Tree uniform(int index, ParameterType type, Object value) {
+            if(type == ParameterType.Bool) {
+                Tree load = LdUniform.get().apply(Arrays.asList(new Int(index), new Int((Boolean) value ? 1 : 0)));
+                return Equal.get().apply(Arrays.asList(load, new Int(1)));
+            }
+
+            return LdUniform.get().apply(Arrays.asList(new Int(index), type.toTree(value)));
+        }
+
         Tree declaredEntry(String id) {
             Parameter entry = entries.get(id);
 
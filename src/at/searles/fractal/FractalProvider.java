@@ -19,7 +19,22 @@ public class FractalProvider {
     private transient ParameterTable table;
     private transient boolean isTableValid;
 
+    /**
+     * If true, fractals are compiled with uniforms (see Fractal.fromData).
+     */
+    private transient final boolean useUniforms;
+
     public FractalProvider() {
+        this(false);
+    }
+
+    /**
+     * @param useUniforms true if the code of fractals is only executed by the
+     *                    java vm. Then, changes of numeric and bool parameters
+     *                    patch the code instead of compiling it.
+     */
+    public FractalProvider(boolean useUniforms) {
+        this.useUniforms = useUniforms;
         this.collection = new FractalCollection();
         this.exclusiveParameters = new TreeSet<>();
         listeners = new ArrayList<>(2);
@@ -139,7 +154,9 @@ public class FractalProvider {
      * @return The id.
      */
     public int addFractal(FractalData fractalData) {
-        Fractal fractal = Fractal.fromData(fractalData);
+        // without uniforms, the int-code can also be executed by the RenderScript
+        // vm (see FractviewInstructionSet.createVM) that does not implement ldUniform.
+        Fractal fractal = Fractal.fromData(fractalData, useUniforms);
         int id = collection.add(fractal);
 
         invalidateTable();
@@ -3,6 +3,8 @@ package at.searles.fractal;
 import at.searles.math.Cplx;
 import at.searles.meelan.ops.ConstInstruction;
 import at.searles.meelan.ops.InstructionSet;
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.SystemType;
 import at.searles.meelan.ops.analysis.*;
 import at.searles.meelan.ops.arithmetics.*;
 import at.searles.meelan.ops.bool.And;
@@ -28,81 +30,154 @@ import at.searles.meelan.ops.sys.*;
 import at.searles.meelan.values.CplxVal;
 import at.searles.meelan.values.Real;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class FractviewInstructionSet extends InstructionSet {
 
     private static FractviewInstructionSet singleton;
+    private static FractviewInstructionSet javaVmSingleton;
 
-    public static FractviewInstructionSet get() {
+    /**
+     * @return the instructions of all vms, ie also of the RenderScript vm
+     * that is generated by createVM.
+     */
+    public static synchronized FractviewInstructionSet get() {
         if(singleton == null) {
-            singleton = new FractviewInstructionSet();
+            singleton = new FractviewInstructionSet(false);
         }
 
         return singleton;
     }
 
-    private FractviewInstructionSet() {
+    /**
+     * @return the instructions of get() followed by ldUniform that only the
+     * java vm implements. Opcodes of get() are the same in both.
+     */
+    public static synchronized FractviewInstructionSet javaVm() {
+        if(javaVmSingleton == null) {
+            javaVmSingleton = new FractviewInstructionSet(true);
+        }
+
+        return javaVmSingleton;
+    }
+
+    /**
+     * System instructions in order of registration together with their
+     * names. The order determines the opcodes in the generated int-code,
+     * hence it is needed by the java vm. The name is null if the instruction
+     * names itself for each signature (see functionName).
+     */
+    private final LinkedHashMap<SystemInstruction, String> systemInstructions = new LinkedHashMap<>();
+
+    private FractviewInstructionSet(boolean withUniforms) {
         init();
+
+        if(withUniforms) {
+            this.putSystemInstruction(LdUniform.get());
+        }
+    }
+
+    public Map<SystemInstruction, String> systemInstructions() {
+        return Collections.unmodifiableMap(systemInstructions);
+    }
+
+    private void putSystemInstruction(String name, SystemInstruction instruction) {
+        this.addSystemInstruction(name, instruction);
+        systemInstructions.put(instruction, name);
+    }
+
+    private void putSystemInstruction(SystemInstruction instruction) {
+        this.addSystemInstruction(instruction);
+        systemInstructions.put(instruction, null);
+    }
+
+    /**
+     * @return the name of the instruction for the given signature, ie the
+     * registered name or otherwise the name that the instruction uses for
+     * this signature in the generated vm (eg palette_lab).
+     */
+    public String functionName(SystemInstruction instruction, ArrayList<SystemType> signature) {
+        String name = systemInstructions.get(instruction);
+
+        if(name != null) {
+            return name;
+        }
+
+        try {
+            // getFunctionName is protected in meelan.
+            Method method = SystemInstruction.class.getDeclaredMethod("getFunctionName", ArrayList.class);
+            method.setAccessible(true);
+            name = (String) method.invoke(instruction, signature);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            // use the class name instead.
+        }
+
+        return name != null ? name : instruction.getClass().getSimpleName().toLowerCase();
     }
 
     private void init() {
         // Constructors
-        this.addSystemInstruction("cons", Cons.get());
-        this.addSystemInstruction("real", RealToInt.get());
-        this.addSystemInstruction(IntToReal.get());
+        this.putSystemInstruction("cons", Cons.get());
+        this.putSystemInstruction("real", RealToInt.get());
+        this.putSystemInstruction(IntToReal.get());
 
         // Arithmetics
-        this.addSystemInstruction("add", Add.get());
-        this.addSystemInstruction("sub", Sub.get());
-        this.addSystemInstruction("mul", Mul.get());
-        this.addSystemInstruction("div", Div.get());
-        this.addSystemInstruction("mod", Mod.get());
-        this.addSystemInstruction("pow", Pow.get());
+        this.putSystemInstruction("add", Add.get());
+        this.putSystemInstruction("sub", Sub.get());
+        this.putSystemInstruction("mul", Mul.get());
+        this.putSystemInstruction("div", Div.get());
+        this.putSystemInstruction("mod", Mod.get());
+        this.putSystemInstruction("pow", Pow.get());
 
-        this.addSystemInstruction("recip", Recip.get());
-        this.addSystemInstruction("neg", Neg.get());
+        this.putSystemInstruction("recip", Recip.get());
+        this.putSystemInstruction("neg", Neg.get());
 
 
         // analysis
-        this.addSystemInstruction("atan", Atan.get());
-        this.addSystemInstruction("atanh", Atanh.get());
-        this.addSystemInstruction("cos", Cos.get());
-        this.addSystemInstruction("cosh", Cosh.get());
-        this.addSystemInstruction("exp", Exp.get());
-        this.addSystemInstruction("log", Log.get());
-        this.addSystemInstruction("sin", Sin.get());
-        this.addSystemInstruction("sinh", Sinh.get());
-        this.addSystemInstruction("sqr", Sqr.get());
-        this.addSystemInstruction("sqrt", Sqrt.get());
-        this.addSystemInstruction("tan", Tan.get());
-        this.addSystemInstruction("tanh", Tanh.get());
+        this.putSystemInstruction("atan", Atan.get());
+        this.putSystemInstruction("atanh", Atanh.get());
+        this.putSystemInstruction("cos", Cos.get());
+        this.putSystemInstruction("cosh", Cosh.get());
+        this.putSystemInstruction("exp", Exp.get());
+        this.putSystemInstruction("log", Log.get());
+        this.putSystemInstruction("sin", Sin.get());
+        this.putSystemInstruction("sinh", Sinh.get());
+        this.putSystemInstruction("sqr", Sqr.get());
+        this.putSystemInstruction("sqrt", Sqrt.get());
+        this.putSystemInstruction("tan", Tan.get());
+        this.putSystemInstruction("tanh", Tanh.get());
 
         // numeric
-        this.addSystemInstruction("abs", Abs.get());
-        this.addSystemInstruction("floor", Floor.get());
-        this.addSystemInstruction("ceil", Ceil.get());
-        this.addSystemInstruction("fract", Fract.get());
-        this.addSystemInstruction("dot", Dot.get());
-        this.addSystemInstruction("circlefn", CircleFn.get());
-        this.addSystemInstruction("scalarmul", ScalarMul.get());
-        this.addSystemInstruction("max", Max.get());
-        this.addSystemInstruction("min", Min.get());
+        this.putSystemInstruction("abs", Abs.get());
+        this.putSystemInstruction("floor", Floor.get());
+        this.putSystemInstruction("ceil", Ceil.get());
+        this.putSystemInstruction("fract", Fract.get());
+        this.putSystemInstruction("dot", Dot.get());
+        this.putSystemInstruction("circlefn", CircleFn.get());
+        this.putSystemInstruction("scalarmul", ScalarMul.get());
+        this.putSystemInstruction("max", Max.get());
+        this.putSystemInstruction("min", Min.get());
 
         // complex
-        this.addSystemInstruction("conj", Conj.get());
-        this.addSystemInstruction("flip", Flip.get());
-        this.addSystemInstruction("rabs", RAbs.get());
-        this.addSystemInstruction("iabs", IAbs.get());
-        this.addSystemInstruction("norm", Norm.get());
-        this.addSystemInstruction("polar", Polar.get());
-        this.addSystemInstruction("rect", Rect.get());
-        this.addSystemInstruction("arc", Arc.get());
-        this.addSystemInstruction("arcnorm", Arcnorm.get());
-        this.addSystemInstruction("rad", Rad.get());
-        this.addSystemInstruction("rad2", Rad2.get());
-        this.addSystemInstruction("dist", Dist.get());
-        this.addSystemInstruction("dist2", Dist2.get());
-        this.addSystemInstruction("re", Re.get());
-        this.addSystemInstruction("im", Im.get());
+        this.putSystemInstruction("conj", Conj.get());
+        this.putSystemInstruction("flip", Flip.get());
+        this.putSystemInstruction("rabs", RAbs.get());
+        this.putSystemInstruction("iabs", IAbs.get());
+        this.putSystemInstruction("norm", Norm.get());
+        this.putSystemInstruction("polar", Polar.get());
+        this.putSystemInstruction("rect", Rect.get());
+        this.putSystemInstruction("arc", Arc.get());
+        this.putSystemInstruction("arcnorm", Arcnorm.get());
+        this.putSystemInstruction("rad", Rad.get());
+        this.putSystemInstruction("rad2", Rad2.get());
+        this.putSystemInstruction("dist", Dist.get());
+        this.putSystemInstruction("dist2", Dist2.get());
+        this.putSystemInstruction("re", Re.get());
+        this.putSystemInstruction("im", Im.get());
 
         // bools
         this.addInstruction("and", And.get());
@@ -110,43 +185,43 @@ public class FractviewInstructionSet extends InstructionSet {
         this.addInstruction("not", Not.get());
 
         // comparisons
-        this.addSystemInstruction("eq", Equal.get());
-        this.addSystemInstruction("less", Less.get());
+        this.putSystemInstruction("eq", Equal.get());
+        this.putSystemInstruction("less", Less.get());
         this.addInstruction("neq", NonEqual.get());
         this.addInstruction("geq", GreaterEqual.get());
         this.addInstruction("leq", LessEq.get());
         this.addInstruction("greater", Greater.get());
 
         // graphics
-        this.addSystemInstruction("box", Box.get());
-        this.addSystemInstruction("circle", Circle.get());
-        this.addSystemInstruction("line", Line.get());
-        this.addSystemInstruction("segment", Segment.get());
+        this.putSystemInstruction("box", Box.get());
+        this.putSystemInstruction("circle", Circle.get());
+        this.putSystemInstruction("line", Line.get());
+        this.putSystemInstruction("segment", Segment.get());
 
         // colors
-        this.addSystemInstruction("int2lab", Int2Lab.get());
-        this.addSystemInstruction("int2rgb", Int2Rgb.get());
-        this.addSystemInstruction("lab2int", Lab2Int.get());
-        this.addSystemInstruction("lab2rgb", Lab2Rgb.get());
-        this.addSystemInstruction("rgb2int", Rgb2Int.get());
-        this.addSystemInstruction("rgb2lab", Rgb2Lab.get());
+        this.putSystemInstruction("int2lab", Int2Lab.get());
+        this.putSystemInstruction("int2rgb", Int2Rgb.get());
+        this.putSystemInstruction("lab2int", Lab2Int.get());
+        this.putSystemInstruction("lab2rgb", Lab2Rgb.get());
+        this.putSystemInstruction("rgb2int", Rgb2Int.get());
+        this.putSystemInstruction("rgb2lab", Rgb2Lab.get());
 
-        this.addSystemInstruction("over", Over.get());
+        this.putSystemInstruction("over", Over.get());
 
         // special
-        this.addSystemInstruction("distless", DistLess.get());
-        this.addSystemInstruction("radless", RadLess.get());
-        this.addSystemInstruction("radrange", RadRange.get());
+        this.putSystemInstruction("distless", DistLess.get());
+        this.putSystemInstruction("radless", RadLess.get());
+        this.putSystemInstruction("radrange", RadRange.get());
         this.addInstruction("smooth", Smooth.get()); // deprecated
-        this.addSystemInstruction("smoothen", Smoothen.get());
-        this.addSystemInstruction("mandelbrot", Mandelbrot.get());
+        this.putSystemInstruction("smoothen", Smoothen.get());
+        this.putSystemInstruction("mandelbrot", Mandelbrot.get());
 
         // sys
-        this.addSystemInstruction("next", Next.get());
-        this.addSystemInstruction("map", MapCoordinates.get());
-        this.addSystemInstruction(Mov.get());
-        this.addSystemInstruction(Jump.get());
-        this.addSystemInstruction(JumpRel.get());
+        this.putSystemInstruction("next", Next.get());
+        this.putSystemInstruction("map", MapCoordinates.get());
+        this.putSystemInstruction(Mov.get());
+        this.putSystemInstruction(Jump.get());
+        this.putSystemInstruction(JumpRel.get());
 
         this.addInstruction("length", Length.get());
         this.addInstruction("select", Select.get());
@@ -162,6 +237,6 @@ public class FractviewInstructionSet extends InstructionSet {
         this.addInstruction("I", new ConstInstruction(new CplxVal(new Cplx(0, 1))));
 
         // specials for fractview
-        this.addSystemInstruction(LdPalette.get());
+        this.putSystemInstruction(LdPalette.get());
     }
 }
@@ -15,7 +15,7 @@ public class LdPalette extends SystemInstruction {
 
     private static LdPalette singleton;
 
-    public static LdPalette get() {
+    public static synchronized LdPalette get() {
         if(singleton == null) {
             singleton = new LdPalette();
         }
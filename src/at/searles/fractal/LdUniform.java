@@ -0,0 +1,72 @@
+package at.searles.fractal;
+
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.SystemType;
+import at.searles.meelan.optree.Tree;
+import at.searles.meelan.types.BaseType;
+import at.searles.meelan.types.FunctionType;
+import at.searles.meelan.values.Const;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads the value of a numeric parameter. The first argument is the index
+ * of the parameter in the uniform table, the second one its value at the
+ * time of compilation. Since the value is a separate constant in the
+ * int-code, it can be patched without compiling the source again.
+ *
+ * Bools are loaded as ints. Only the java vm implements it, hence it is
+ * only registered in FractviewInstructionSet.javaVm() and not part of the
+ * generated RenderScript vm.
+ */
+public class LdUniform extends SystemInstruction {
+
+    private static LdUniform singleton;
+
+    public static synchronized LdUniform get() {
+        if(singleton == null) {
+            singleton = new LdUniform();
+        }
+
+        return singleton;
+    }
+
+    private LdUniform() {
+        super(
+                new FunctionType[]{
+                        new FunctionType(Arrays.asList(BaseType.integer, BaseType.integer), BaseType.integer),
+                        new FunctionType(Arrays.asList(BaseType.integer, BaseType.real), BaseType.real),
+                        new FunctionType(Arrays.asList(BaseType.integer, BaseType.cplx), BaseType.cplx)
+                },
+                SystemType.signatures(
+                        SystemType.signature(SystemType.integer, SystemType.integer, SystemType.integerReg),
+                        SystemType.signature(SystemType.integer, SystemType.real, SystemType.realReg),
+                        SystemType.signature(SystemType.integer, SystemType.cplx, SystemType.cplxReg)
+                ),
+                Kind.Expr
+        );
+    }
+
+    @Override
+    protected Const evaluate(FunctionType functionType, List<Tree> list) {
+        // never fold, the value might change.
+        return null;
+    }
+
+    @Override
+    protected String getFunctionName(ArrayList<SystemType> signature) {
+        SystemType type = signature.get(signature.size() - 1);
+
+        if(SystemType.integerReg.equals(type)) {
+            return "uniform_int";
+        }
+
+        if(SystemType.realReg.equals(type)) {
+            return "uniform_real";
+        }
+
+        return "uniform_cplx";
+    }
+}
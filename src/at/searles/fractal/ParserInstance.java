@@ -3,15 +3,24 @@ package at.searles.fractal;
 import at.searles.meelan.MeelanException;
 import at.searles.meelan.compiler.Ast;
 import at.searles.meelan.optree.Tree;
+import at.searles.meelan.optree.inlined.ExternDeclaration;
 import at.searles.meelan.parser.MeelanEnv;
 import at.searles.meelan.parser.MeelanParser;
 import at.searles.parsing.parser.ParserStream;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ParserInstance {
 
+    private static final int CACHE_SIZE = 128;
+    private static final int EXPR_CACHE_SIZE = 512;
+
     private static ParserInstance singleton = null;
 
-    public static ParserInstance get() {
+    public static synchronized ParserInstance get() {
         if(singleton == null) {
             singleton = new ParserInstance();
         }
@@ -19,30 +28,119 @@ public class ParserInstance {
         return singleton;
     }
 
-    private final MeelanEnv env;
-    private final MeelanParser parser;
+    /**
+     * Parsers are not thread safe, hence each thread has its own one.
+     */
+    private final ThreadLocal<MeelanEnv> env = ThreadLocal.withInitial(MeelanEnv::new);
+    private final ThreadLocal<MeelanParser> parser = ThreadLocal.withInitial(MeelanParser::new);
+
+    /**
+     * Parsed sources by source code, least recently used first.
+     */
+    private final Map<String, ParsedSource> cache =
+            new LinkedHashMap<String, ParsedSource>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedSource> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Parsed expressions (eg of expr parameters) by expression string.
+     */
+    private final Map<String, Tree> exprCache =
+            new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+                    return size() > EXPR_CACHE_SIZE;
+                }
+            };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ParserInstance() {}
+
+    /**
+     * An ast together with its extern declarations. Instances are shared
+     * and must not be modified.
+     */
+    public static final class ParsedSource {
+        public final Ast ast;
+        public final Map<String, ExternDeclaration> externDecls;
 
-    private ParserInstance() {
-        this.env = new MeelanEnv();
-        this.parser = new MeelanParser();
+        private ParsedSource(Ast ast) {
+            this.ast = ast;
+            this.externDecls = Collections.unmodifiableMap(ast.collectExternDecls());
+        }
     }
 
+    /**
+     * Parsed trees are cached and shared, hence they must not be modified.
+     * Thread safe.
+     */
     public Tree parseExpr(String sourceCode) {
+        synchronized(exprCache) {
+            Tree tree = exprCache.get(sourceCode);
+
+            if(tree != null) {
+                return tree;
+            }
+        }
+
         ParserStream stream = ParserStream.fromString(sourceCode);
 
-        Tree tree = parser.parseExpr(env, stream);
+        Tree tree = parser.get().parseExpr(env.get(), stream);
 
         if(!stream.isEmpty()) {
             // FIXME some kind of warning that it was not fully parsed?
         }
 
+        if(tree != null) {
+            synchronized(exprCache) {
+                exprCache.put(sourceCode, tree);
+            }
+        }
+
         return tree;
     }
 
+    /**
+     * Like parseSource but the result is cached. Thread safe.
+     */
+    public ParsedSource parse(String sourceCode) {
+        synchronized(cache) {
+            ParsedSource parsed = cache.get(sourceCode);
+
+            if(parsed != null) {
+                hits.incrementAndGet();
+                return parsed;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        ParsedSource parsed = new ParsedSource(parseSource(sourceCode));
+
+        synchronized(cache) {
+            cache.put(sourceCode, parsed);
+        }
+
+        return parsed;
+    }
+
+    public long cacheHits() {
+        return hits.get();
+    }
+
+    public long cacheMisses() {
+        return misses.get();
+    }
+
     public Ast parseSource(String sourceCode) {
         ParserStream stream = ParserStream.fromString(sourceCode);
 
-        return Ast.parse(env, stream);
+        return Ast.parse(env.get(), stream);
 
 //        if(!stream.isEmpty()) {
 //            // TODO 2018-07-11: There should be some warning in this case
@@ -132,8 +132,11 @@ public class FractalData implements Iterable<String> {
             }
 
             this.source = source;
-            this.ast = ParserInstance.get().parseSource(source);
-            this.externDecls = this.ast.collectExternDecls();
+            // the parsed source is shared with all other fractals with the same source.
+            ParserInstance.ParsedSource parsed = ParserInstance.get().parse(source);
+
+            this.ast = parsed.ast;
+            this.externDecls = parsed.externDecls;
             parameters = new LinkedHashMap<>();
 
             return this;
@@ -0,0 +1,119 @@
+package at.searles.fractal.gson;
+
+import at.searles.fractal.CompileService;
+import at.searles.fractal.Fractal;
+import at.searles.fractal.entries.FavoriteEntry;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Imports a collection of favorites (eg a backup) in parallel. The json is
+ * only split into entries sequentially; deserializing, parsing and compiling
+ * of each entry happens in the executor. An entry that fails is reported
+ * and does not abort the import of the others.
+ */
+public class FavoritesImporter {
+
+    public static class Result {
+        /**
+         * Entries that were imported, in the order of the collection.
+         */
+        public final FavoriteEntry.Collection entries;
+
+        /**
+         * Compiled fractals of entries, in the same order.
+         */
+        public final Map<String, Fractal> fractals;
+
+        /**
+         * Cause of failure of all other entries, in the order of the collection.
+         */
+        public final Map<String, Throwable> failures;
+
+        private Result() {
+            this.entries = new FavoriteEntry.Collection();
+            this.fractals = new LinkedHashMap<>();
+            this.failures = new LinkedHashMap<>();
+        }
+    }
+
+    private final Executor executor;
+    private final CompileService compileService;
+
+    public FavoritesImporter(Executor executor) {
+        this.executor = executor;
+        this.compileService = new CompileService(executor, false);
+    }
+
+    public Result load(Reader reader) {
+        return load(new JsonParser().parse(reader));
+    }
+
+    /**
+     * @throws JsonParseException if json is not a collection.
+     */
+    public Result load(JsonElement json) {
+        if(!json.isJsonObject()) {
+            throw new JsonParseException("not a collection");
+        }
+
+        List<String> keys = new ArrayList<>();
+        List<CompletableFuture<Imported>> futures = new ArrayList<>();
+
+        for(Map.Entry<String, JsonElement> item : ((JsonObject) json).entrySet()) {
+            JsonElement element = item.getValue();
+
+            CompletableFuture<Imported> future = CompletableFuture
+                    .supplyAsync(() -> Serializers.serializer().fromJson(element, FavoriteEntry.class), executor)
+                    .thenCompose(entry -> compileService.compile(entry.fractal)
+                            .thenApply(fractal -> new Imported(entry, fractal)));
+
+            keys.add(item.getKey());
+            futures.add(future);
+        }
+
+        Result result = new Result();
+
+        for(int i = 0; i < keys.size(); ++i) {
+            try {
+                Imported imported = futures.get(i).join();
+                result.entries.put(keys.get(i), imported.entry);
+                result.fractals.put(keys.get(i), imported.fractal);
+            } catch(CompletionException e) {
+                result.failures.put(keys.get(i), cause(e));
+            }
+        }
+
+        return result;
+    }
+
+    private static Throwable cause(Throwable th) {
+        // unwrap the layers added by futures and adapters.
+        while((th instanceof CompletionException || th instanceof JsonParseException) && th.getCause() != null) {
+            th = th.getCause();
+        }
+
+        return th;
+    }
+
+    private static class Imported {
+        final FavoriteEntry entry;
+        final Fractal fractal;
+
+        Imported(FavoriteEntry entry, Fractal fractal) {
+            this.entry = entry;
+            this.fractal = fractal;
+        }
+    }
+}
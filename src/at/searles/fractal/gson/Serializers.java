@@ -19,9 +19,8 @@ public class Serializers {
 
     private static Gson gson = null;
 
-    public static Gson serializer() {
-        // No need for synchronization since this will usually
-        // be only called from the ui thread.
+    public static synchronized Gson serializer() {
+        // Gson instances are thread safe, hence it can be shared once it is created.
         if (gson == null) {
             GsonBuilder gsonBuilder = new GsonBuilder();
 
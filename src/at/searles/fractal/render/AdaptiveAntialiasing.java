@@ -0,0 +1,193 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+import at.searles.fractal.vm.ScaleMapping;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Anti-aliasing pass over an image rendered at one sample per pixel.
+ * Only pixels whose color differs from one of their neighbours by more
+ * than a threshold are sampled again at jittered sub-pixel positions.
+ * Sub-samples use the same int-code with a shifted mapping (see
+ * ScaleMapping.withOffset) and are averaged with the original color.
+ */
+public class AdaptiveAntialiasing {
+
+    public static final int DEFAULT_GRID = 3;
+    public static final int DEFAULT_THRESHOLD = 24;
+
+    /**
+     * Rows per task.
+     */
+    private static final int ROWS_PER_TASK = 8;
+
+    private final Program[] programs;
+    private final ForkJoinPool pool;
+    private final ExecutorFactory mode;
+    private final int threshold;
+
+    public AdaptiveAntialiasing(Program program) {
+        this(program, ForkJoinPool.commonPool(), ExecutionMode.Interpreted, DEFAULT_GRID, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param grid Sub-samples are jittered within a grid x grid raster.
+     * @param threshold Maximum difference of color channels of neighbours.
+     */
+    public AdaptiveAntialiasing(Program program, ForkJoinPool pool, ExecutorFactory mode, int grid, int threshold) {
+        this.pool = pool;
+        this.mode = mode;
+        this.threshold = threshold;
+
+        // fixed seed so that images are reproducible.
+        Random random = new Random(grid);
+        ScaleMapping mapping = program.mapping();
+
+        this.programs = new Program[grid * grid - 1];
+
+        int index = 0;
+
+        for(int j = 0; j < grid; ++j) {
+            for(int i = 0; i < grid; ++i) {
+                if(2 * i + 1 == grid && 2 * j + 1 == grid) {
+                    // the center is the original sample.
+                    continue;
+                }
+
+                if(index == programs.length) {
+                    // grid is even, the original sample replaces the last cell.
+                    break;
+                }
+
+                double dx = (i + random.nextDouble()) / grid - 0.5;
+                double dy = (j + random.nextDouble()) / grid - 0.5;
+
+                programs[index++] = program.withMapping(mapping.withOffset(dx, dy));
+            }
+        }
+    }
+
+    /**
+     * Refines edge pixels of a rendered bitmap.
+     *
+     * @return the number of pixels that were sampled again.
+     */
+    public int apply(Bitmap bitmap) {
+        boolean[] edges = findEdges(bitmap);
+
+        int count = 0;
+
+        for(boolean edge : edges) {
+            if(edge) {
+                count++;
+            }
+        }
+
+        ThreadLocal<Executor[]> executors = ThreadLocal.withInitial(() -> {
+            Executor[] array = new Executor[programs.length];
+
+            for(int i = 0; i < array.length; ++i) {
+                array[i] = mode.executor(programs[i]);
+            }
+
+            return array;
+        });
+
+        pool.invoke(new Rows(bitmap, edges, executors, 0, bitmap.height()));
+
+        return count;
+    }
+
+    private boolean[] findEdges(Bitmap bitmap) {
+        int width = bitmap.width();
+        int height = bitmap.height();
+
+        boolean[] edges = new boolean[width * height];
+
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                int color = bitmap.pixel(x, y);
+
+                if(x + 1 < width && differs(color, bitmap.pixel(x + 1, y))) {
+                    edges[y * width + x] = edges[y * width + x + 1] = true;
+                }
+
+                if(y + 1 < height && differs(color, bitmap.pixel(x, y + 1))) {
+                    edges[y * width + x] = edges[(y + 1) * width + x] = true;
+                }
+            }
+        }
+
+        return edges;
+    }
+
+    private boolean differs(int c0, int c1) {
+        for(int shift = 0; shift < 32; shift += 8) {
+            int d = ((c0 >>> shift) & 0xff) - ((c1 >>> shift) & 0xff);
+
+            if(d > threshold || -d > threshold) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private class Rows extends RecursiveAction {
+        final Bitmap bitmap;
+        final boolean[] edges;
+        final ThreadLocal<Executor[]> executors;
+        final int y0, y1;
+
+        Rows(Bitmap bitmap, boolean[] edges, ThreadLocal<Executor[]> executors, int y0, int y1) {
+            this.bitmap = bitmap;
+            this.edges = edges;
+            this.executors = executors;
+            this.y0 = y0;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            if(y1 - y0 > ROWS_PER_TASK) {
+                int ym = (y0 + y1) / 2;
+                invokeAll(new Rows(bitmap, edges, executors, y0, ym), new Rows(bitmap, edges, executors, ym, y1));
+                return;
+            }
+
+            Executor[] samplers = executors.get();
+            int width = bitmap.width();
+
+            for(int y = y0; y < y1; ++y) {
+                for(int x = 0; x < width; ++x) {
+                    if(edges[y * width + x]) {
+                        bitmap.setPixel(x, y, sample(samplers, x, y, bitmap.pixel(x, y)));
+                    }
+                }
+            }
+        }
+
+        private int sample(Executor[] samplers, int x, int y, int color) {
+            int a = color >>> 24, r = (color >> 16) & 0xff, g = (color >> 8) & 0xff, b = color & 0xff;
+
+            for(Executor sampler : samplers) {
+                int c = sampler.execute(x, y);
+
+                a += c >>> 24;
+                r += (c >> 16) & 0xff;
+                g += (c >> 8) & 0xff;
+                b += c & 0xff;
+            }
+
+            int n = samplers.length + 1;
+
+            return (a + n / 2) / n << 24 | (r + n / 2) / n << 16 | (g + n / 2) / n << 8 | (b + n / 2) / n;
+        }
+    }
+}
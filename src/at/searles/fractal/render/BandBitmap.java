@@ -0,0 +1,68 @@
+package at.searles.fractal.render;
+
+/**
+ * Bitmap of which only a band of rows is stored. Coordinates are those
+ * of the whole image, pixels outside of the band must not be accessed.
+ */
+public class BandBitmap implements Bitmap {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    private int y0;
+    private int rows;
+
+    public BandBitmap(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * capacity];
+    }
+
+    /**
+     * Moves the band to rows y0 (inclusive) to y1 (exclusive).
+     */
+    public void moveTo(int y0, int y1) {
+        if(y0 < 0 || y1 > height || (y1 - y0) * width > pixels.length) {
+            throw new IllegalArgumentException("band does not fit");
+        }
+
+        this.y0 = y0;
+        this.rows = y1 - y0;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public void setPixel(int x, int y, int argb) {
+        pixels[index(x, y)] = argb;
+    }
+
+    @Override
+    public int pixel(int x, int y) {
+        return pixels[index(x, y)];
+    }
+
+    private int index(int x, int y) {
+        if(y < y0 || y >= y0 + rows) {
+            throw new IndexOutOfBoundsException("row " + y + " is not in band");
+        }
+
+        return (y - y0) * width + x;
+    }
+
+    /**
+     * Row-major pixels of the band, starting with row y0.
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+}
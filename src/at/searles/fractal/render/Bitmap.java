@@ -0,0 +1,15 @@
+package at.searles.fractal.render;
+
+/**
+ * Target of renderers. Implementations must allow concurrent writes
+ * to different pixels.
+ */
+public interface Bitmap {
+    int width();
+
+    int height();
+
+    void setPixel(int x, int y, int argb);
+
+    int pixel(int x, int y);
+}
@@ -0,0 +1,81 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders a fractal tile by tile and takes tiles from a TileCache if
+ * they were rendered before.
+ */
+public class CachingRenderer {
+
+    public static final int TILE_SIZE = 256;
+
+    private final Fractal fractal;
+    private final TileCache cache;
+    private final TiledRenderer renderer;
+
+    public CachingRenderer(Fractal fractal, int width, int height, TileCache cache) {
+        this(fractal, width, height, cache, ForkJoinPool.commonPool(), ExecutionMode.Interpreted);
+    }
+
+    public CachingRenderer(Fractal fractal, int width, int height, TileCache cache, ForkJoinPool pool, ExecutorFactory mode) {
+        this.fractal = fractal;
+        this.cache = cache;
+        this.renderer = new TiledRenderer(Program.load(fractal, width, height), pool, mode);
+    }
+
+    /**
+     * @return the number of tiles that were found in the cache.
+     */
+    public int render(Bitmap bitmap) throws IOException {
+        int width = bitmap.width();
+        int height = bitmap.height();
+
+        String imageKey = TileCache.imageKey(fractal, width, height);
+
+        int hits = 0;
+
+        for(int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+            for(int x0 = 0; x0 < width; x0 += TILE_SIZE) {
+                int x1 = Math.min(width, x0 + TILE_SIZE);
+                int y1 = Math.min(height, y0 + TILE_SIZE);
+
+                String key = TileCache.key(imageKey, x0, y0, x1, y1);
+                int[] pixels = cache.get(key);
+
+                int tileWidth = x1 - x0;
+
+                if(pixels != null && pixels.length == tileWidth * (y1 - y0)) {
+                    for(int y = y0; y < y1; ++y) {
+                        for(int x = x0; x < x1; ++x) {
+                            bitmap.setPixel(x, y, pixels[(y - y0) * tileWidth + x - x0]);
+                        }
+                    }
+
+                    hits++;
+                    continue;
+                }
+
+                renderer.render(bitmap, x0, y0, x1, y1);
+
+                pixels = new int[tileWidth * (y1 - y0)];
+
+                for(int y = y0; y < y1; ++y) {
+                    for(int x = x0; x < x1; ++x) {
+                        pixels[(y - y0) * tileWidth + x - x0] = bitmap.pixel(x, y);
+                    }
+                }
+
+                cache.put(key, pixels);
+            }
+        }
+
+        return hits;
+    }
+}
@@ -0,0 +1,173 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.data.FractalData;
+import at.searles.fractal.gson.Serializers;
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+import at.searles.math.Scale;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders in large tiles and stores every finished tile in a directory
+ * so that a killed render can be resumed. The directory also contains a
+ * manifest with the fractal data, the scale, the image size and a hash of
+ * the int-code. Resuming with a different fractal is refused.
+ */
+public class CheckpointedRenderer {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final String MANIFEST = "manifest.json";
+
+    private final Fractal fractal;
+    private final Program program;
+    private final TiledRenderer renderer;
+    private final Path directory;
+
+    public CheckpointedRenderer(Fractal fractal, int width, int height, Path directory) {
+        this(fractal, width, height, directory, ForkJoinPool.commonPool(), ExecutionMode.Interpreted);
+    }
+
+    public CheckpointedRenderer(Fractal fractal, int width, int height, Path directory, ForkJoinPool pool, ExecutorFactory mode) {
+        this.fractal = fractal;
+        this.program = Program.load(fractal, width, height);
+        this.renderer = new TiledRenderer(program, pool, mode);
+        this.directory = directory;
+    }
+
+    /**
+     * Renders all tiles that are not stored yet and loads the others.
+     *
+     * @throws IllegalStateException if the directory contains a checkpoint
+     * of a different fractal.
+     */
+    public void render(Bitmap bitmap) throws IOException {
+        Files.createDirectories(directory);
+
+        JsonObject manifest = manifest();
+        Path manifestFile = directory.resolve(MANIFEST);
+
+        if(Files.exists(manifestFile)) {
+            JsonElement stored;
+
+            try(Reader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+                stored = new JsonParser().parse(reader);
+            } catch(JsonParseException e) {
+                throw new IOException("corrupt manifest", e);
+            }
+
+            if(!manifest.equals(stored)) {
+                throw new IllegalStateException("checkpoint belongs to a different fractal");
+            }
+        } else {
+            writeAtomically(manifestFile, file -> {
+                try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    Serializers.serializer().toJson(manifest, writer);
+                }
+            });
+        }
+
+        int width = program.mapping().width;
+        int height = program.mapping().height;
+
+        for(int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+            for(int x0 = 0; x0 < width; x0 += TILE_SIZE) {
+                int x1 = Math.min(width, x0 + TILE_SIZE);
+                int y1 = Math.min(height, y0 + TILE_SIZE);
+
+                Path tile = directory.resolve("tile-" + x0 + "-" + y0 + ".argb");
+
+                if(Files.exists(tile)) {
+                    readTile(tile, bitmap, x0, y0, x1, y1);
+                } else {
+                    int tx = x0, ty = y0;
+
+                    renderer.render(bitmap, x0, y0, x1, y1);
+                    writeAtomically(tile, file -> writeTile(file, bitmap, tx, ty, x1, y1));
+                }
+            }
+        }
+    }
+
+    private JsonObject manifest() {
+        Gson gson = Serializers.serializer();
+
+        JsonObject manifest = new JsonObject();
+
+        manifest.add("data", gson.toJsonTree(fractal.data(), FractalData.class));
+        manifest.add("scale", gson.toJsonTree(fractal.scale(), Scale.class));
+        manifest.addProperty("width", program.mapping().width);
+        manifest.addProperty("height", program.mapping().height);
+        manifest.addProperty("tileSize", TILE_SIZE);
+        manifest.addProperty("code", hash(fractal.code()));
+
+        return manifest;
+    }
+
+    private static String hash(int[] code) {
+        MessageDigest digest = Hashes.sha256();
+
+        for(int word : code) {
+            Hashes.putInt(digest, word);
+        }
+
+        return Hashes.hex(digest);
+    }
+
+    private interface FileWriter {
+        void write(Path file) throws IOException;
+    }
+
+    /**
+     * Files only appear once they are complete.
+     */
+    private static void writeAtomically(Path file, FileWriter writer) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        writer.write(tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeTile(Path file, Bitmap bitmap, int x0, int y0, int x1, int y1) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for(int y = y0; y < y1; ++y) {
+                for(int x = x0; x < x1; ++x) {
+                    out.writeInt(bitmap.pixel(x, y));
+                }
+            }
+        }
+    }
+
+    private static void readTile(Path file, Bitmap bitmap, int x0, int y0, int x1, int y1) throws IOException {
+        if(Files.size(file) != 4L * (x1 - x0) * (y1 - y0)) {
+            throw new IOException("corrupt tile " + file);
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for(int y = y0; y < y1; ++y) {
+                for(int x = x0; x < x1; ++x) {
+                    bitmap.setPixel(x, y, in.readInt());
+                }
+            }
+        }
+    }
+}
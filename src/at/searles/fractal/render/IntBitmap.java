@@ -0,0 +1,41 @@
+package at.searles.fractal.render;
+
+/**
+ * Bitmap backed by an int-array in row-major order.
+ */
+public class IntBitmap implements Bitmap {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public IntBitmap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public void setPixel(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    @Override
+    public int pixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+}
@@ -0,0 +1,127 @@
+package at.searles.fractal.render;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bitmap in a memory-mapped file for images that are larger than the
+ * heap. Pixels are stored row by row as big-endian argb ints. Since a
+ * mapping is limited to 2GB, the file is mapped in segments of whole
+ * rows. Absolute puts and gets do not modify buffer state, so different
+ * pixels can be written concurrently.
+ */
+public class MappedBitmap implements Bitmap, Closeable {
+
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] buffers;
+    private final IntBuffer[] segments;
+    private final int rowsPerSegment;
+
+    private MappedBitmap(FileChannel channel, int width, int height) throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+
+        long rowBytes = 4L * width;
+
+        this.rowsPerSegment = (int) Math.min(height, MAX_SEGMENT_BYTES / rowBytes);
+
+        if(rowsPerSegment == 0) {
+            throw new IllegalArgumentException("rows are too long");
+        }
+
+        int count = (height + rowsPerSegment - 1) / rowsPerSegment;
+
+        this.buffers = new MappedByteBuffer[count];
+        this.segments = new IntBuffer[count];
+
+        for(int i = 0; i < count; ++i) {
+            int rows = Math.min(rowsPerSegment, height - i * rowsPerSegment);
+
+            buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * rowsPerSegment * rowBytes, rows * rowBytes);
+            segments[i] = buffers[i].asIntBuffer();
+        }
+    }
+
+    /**
+     * Creates a new file or overwrites an existing one. Pixels are initially 0.
+     */
+    public static MappedBitmap create(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            return new MappedBitmap(channel, width, height);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file that was created by create, eg to post-process it.
+     */
+    public static MappedBitmap open(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if(channel.size() != 4L * width * height) {
+                throw new IOException("file size does not match image size");
+            }
+
+            return new MappedBitmap(channel, width, height);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public void setPixel(int x, int y, int argb) {
+        segments[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, argb);
+    }
+
+    @Override
+    public int pixel(int x, int y) {
+        return segments[y / rowsPerSegment].get((y % rowsPerSegment) * width + x);
+    }
+
+    /**
+     * Writes modified pixels to the file.
+     */
+    public void force() {
+        for(MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the file. The mapping itself is released once
+     * this bitmap is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
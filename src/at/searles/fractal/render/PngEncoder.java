@@ -0,0 +1,222 @@
+package at.searles.fractal.render;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PNG (8 bit RGBA) row by row. Only the current and the
+ * previous row are kept in memory; compressed data is flushed into
+ * IDAT chunks as soon as a buffer is full.
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+
+    private final Deflater deflater;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+
+    private byte[] row;
+    private byte[] previous;
+
+    /**
+     * Filtered rows, one per filter type. The first byte is the type.
+     */
+    private final byte[][] filtered;
+
+    private int rowCount;
+
+    /**
+     * Number of compressed bytes in buffer.
+     */
+    private int pending;
+
+    public PngEncoder(OutputStream out, int width, int height) throws IOException {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("empty image");
+        }
+
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        int stride = width * BYTES_PER_PIXEL;
+
+        this.row = new byte[stride];
+        this.previous = new byte[stride];
+        this.filtered = new byte[5][stride + 1];
+
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // rgba
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlace
+
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /**
+     * Appends the next row. argb contains 'width' colors starting at offset.
+     */
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if(rowCount >= height) {
+            throw new IllegalStateException("all rows were written");
+        }
+
+        for(int x = 0; x < width; ++x) {
+            int color = argb[offset + x];
+            int i = x * BYTES_PER_PIXEL;
+
+            row[i] = (byte) (color >> 16);
+            row[i + 1] = (byte) (color >> 8);
+            row[i + 2] = (byte) color;
+            row[i + 3] = (byte) (color >>> 24);
+        }
+
+        byte[] best = filter();
+
+        deflater.setInput(best);
+        drain(false);
+
+        byte[] tmp = previous;
+        previous = row;
+        row = tmp;
+
+        rowCount++;
+    }
+
+    /**
+     * Writes the remaining data and the end of the image. Does not close
+     * the underlying stream.
+     */
+    public void finish() throws IOException {
+        if(rowCount != height) {
+            throw new IllegalStateException("missing rows: " + (height - rowCount));
+        }
+
+        deflater.finish();
+        drain(true);
+        deflater.end();
+
+        writeChunk("IEND", buffer, 0);
+        out.flush();
+    }
+
+    /**
+     * Applies all filters and returns the one with the minimum sum of
+     * absolute values (the heuristic recommended by the specification).
+     */
+    private byte[] filter() {
+        int stride = row.length;
+        boolean first = rowCount == 0;
+
+        for(int type = 0; type < 5; ++type) {
+            filtered[type][0] = (byte) type;
+        }
+
+        for(int i = 0; i < stride; ++i) {
+            int x = row[i] & 0xff;
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xff : 0;
+            int b = first ? 0 : previous[i] & 0xff;
+            int c = i >= BYTES_PER_PIXEL && !first ? previous[i - BYTES_PER_PIXEL] & 0xff : 0;
+
+            filtered[0][i + 1] = (byte) x;
+            filtered[1][i + 1] = (byte) (x - a);
+            filtered[2][i + 1] = (byte) (x - b);
+            filtered[3][i + 1] = (byte) (x - ((a + b) >> 1));
+            filtered[4][i + 1] = (byte) (x - paeth(a, b, c));
+        }
+
+        byte[] best = filtered[0];
+        long bestSum = Long.MAX_VALUE;
+
+        for(byte[] candidate : filtered) {
+            long sum = 0;
+
+            for(int i = 1; i < candidate.length; ++i) {
+                sum += Math.abs((int) candidate[i]);
+            }
+
+            if(sum < bestSum) {
+                bestSum = sum;
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+
+        if(pa <= pb && pa <= pc) {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Moves compressed data into the buffer and writes full buffers as IDAT chunks.
+     */
+    private void drain(boolean finish) throws IOException {
+        while(finish ? !deflater.finished() : !deflater.needsInput()) {
+            pending += deflater.deflate(buffer, pending, buffer.length - pending);
+
+            if(pending == buffer.length) {
+                writeChunk("IDAT", buffer, pending);
+                pending = 0;
+            }
+        }
+
+        if(finish && pending > 0) {
+            writeChunk("IDAT", buffer, pending);
+            pending = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,176 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mariani-Silver rendering: If all pixels on the border of a rectangle
+ * have the same color, the interior is filled with it without evaluating
+ * it. Otherwise the rectangle is split in two halves. Hence, solid regions
+ * (lakes, bailout bands) only cost their perimeter.
+ *
+ * This assumes that regions of the same color are connected, which holds
+ * for escape-time fractals but is not guaranteed in general: Structures
+ * thinner than a pixel that are completely inside a rectangle are lost.
+ */
+public class SubdivisionRenderer {
+
+    /**
+     * Rectangles whose interior is smaller than this are evaluated pixel
+     * by pixel.
+     */
+    private static final int MIN_SIZE = 6;
+
+    private final Program program;
+    private final ForkJoinPool pool;
+    private final ExecutorFactory mode;
+
+    public SubdivisionRenderer(Program program) {
+        this(program, ForkJoinPool.commonPool(), ExecutionMode.Interpreted);
+    }
+
+    public SubdivisionRenderer(Program program, ForkJoinPool pool, ExecutorFactory mode) {
+        this.program = program;
+        this.pool = pool;
+        this.mode = mode;
+    }
+
+    public void render(Bitmap bitmap) {
+        if(bitmap.width() != program.mapping().width || bitmap.height() != program.mapping().height) {
+            throw new IllegalArgumentException("bitmap size does not match program");
+        }
+
+        ThreadLocal<Executor> executors = ThreadLocal.withInitial(() -> mode.executor(program));
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                int x1 = bitmap.width() - 1;
+                int y1 = bitmap.height() - 1;
+
+                Executor executor = executors.get();
+
+                row(executor, bitmap, 0, x1, 0);
+                row(executor, bitmap, 0, x1, y1);
+                column(executor, bitmap, 0, 1, y1 - 1);
+                column(executor, bitmap, x1, 1, y1 - 1);
+
+                new Rectangle(bitmap, executors, 0, 0, x1, y1).compute();
+            }
+        });
+    }
+
+    /**
+     * Evaluates the pixels x0 to x1 (inclusive) in row y.
+     */
+    private static void row(Executor executor, Bitmap bitmap, int x0, int x1, int y) {
+        int count = x1 - x0 + 1;
+
+        if(count <= 0) {
+            return;
+        }
+
+        int[] colors = new int[count];
+        executor.execute(x0, y, count, colors);
+
+        for(int i = 0; i < count; ++i) {
+            bitmap.setPixel(x0 + i, y, colors[i]);
+        }
+    }
+
+    /**
+     * Evaluates the pixels y0 to y1 (inclusive) in column x.
+     */
+    private static void column(Executor executor, Bitmap bitmap, int x, int y0, int y1) {
+        for(int y = y0; y <= y1; ++y) {
+            bitmap.setPixel(x, y, executor.execute(x, y));
+        }
+    }
+
+    /**
+     * A rectangle with inclusive bounds whose border is already set.
+     */
+    private static class Rectangle extends RecursiveAction {
+        final Bitmap bitmap;
+        final ThreadLocal<Executor> executors;
+        final int x0, y0, x1, y1;
+
+        Rectangle(Bitmap bitmap, ThreadLocal<Executor> executors, int x0, int y0, int x1, int y1) {
+            this.bitmap = bitmap;
+            this.executors = executors;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            int w = x1 - x0 - 1;
+            int h = y1 - y0 - 1;
+
+            if(w <= 0 || h <= 0) {
+                // no interior.
+                return;
+            }
+
+            if(isBorderUniform()) {
+                int color = bitmap.pixel(x0, y0);
+
+                for(int y = y0 + 1; y < y1; ++y) {
+                    for(int x = x0 + 1; x < x1; ++x) {
+                        bitmap.setPixel(x, y, color);
+                    }
+                }
+
+                return;
+            }
+
+            Executor executor = executors.get();
+
+            if(w < MIN_SIZE || h < MIN_SIZE) {
+                for(int y = y0 + 1; y < y1; ++y) {
+                    row(executor, bitmap, x0 + 1, x1 - 1, y);
+                }
+
+                return;
+            }
+
+            // split along the longer side. The dividing line is the border of both halves.
+            if(w >= h) {
+                int xm = (x0 + x1) / 2;
+                column(executor, bitmap, xm, y0 + 1, y1 - 1);
+                invokeAll(new Rectangle(bitmap, executors, x0, y0, xm, y1),
+                        new Rectangle(bitmap, executors, xm, y0, x1, y1));
+            } else {
+                int ym = (y0 + y1) / 2;
+                row(executor, bitmap, x0 + 1, x1 - 1, ym);
+                invokeAll(new Rectangle(bitmap, executors, x0, y0, x1, ym),
+                        new Rectangle(bitmap, executors, x0, ym, x1, y1));
+            }
+        }
+
+        private boolean isBorderUniform() {
+            int color = bitmap.pixel(x0, y0);
+
+            for(int x = x0; x <= x1; ++x) {
+                if(bitmap.pixel(x, y0) != color || bitmap.pixel(x, y1) != color) {
+                    return false;
+                }
+            }
+
+            for(int y = y0 + 1; y < y1; ++y) {
+                if(bitmap.pixel(x0, y) != color || bitmap.pixel(x1, y) != color) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.Fractal;
+import at.searles.math.Scale;
+import at.searles.math.color.Palette;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of rendered tiles. Tiles are addressed by a hash of everything
+ * that determines their pixels: the int-code, the palettes, the scale,
+ * the image size and the tile bounds. Hence, revisiting a fractal (eg
+ * via the history or a favorite) finds its tiles again.
+ *
+ * Recently used tiles are kept in memory, all tiles in a directory.
+ * Both tiers evict the least recently used tiles once their size
+ * exceeds a limit. A directory of null disables the disk tier.
+ */
+public class TileCache {
+
+    private static final String SUFFIX = ".argb";
+
+    private final long maxMemoryBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, int[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    /**
+     * Files in the directory in access order and their sizes.
+     */
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    public TileCache(long maxMemoryBytes, Path directory, long maxDiskBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        if(directory != null) {
+            Files.createDirectories(directory);
+            scanDirectory();
+        }
+    }
+
+    private void scanDirectory() throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for(Path file : stream) {
+                files.add(file);
+            }
+        }
+
+        // oldest first so that the access order is restored.
+        files.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+
+        for(Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+
+            disk.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            diskBytes += size;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch(IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * @return the part of the keys that is the same for all tiles of an image.
+     * It hashes the int-code and palettes and hence should be computed only
+     * once per render.
+     */
+    public static String imageKey(Fractal fractal, int width, int height) {
+        MessageDigest digest = Hashes.sha256();
+
+        int[] code = fractal.code();
+        Hashes.putInt(digest, code.length);
+
+        for(int word : code) {
+            Hashes.putInt(digest, word);
+        }
+
+        List<Palette> palettes = fractal.palettes();
+        Hashes.putInt(digest, palettes.size());
+
+        for(Palette palette : palettes) {
+            Hashes.putInt(digest, palette.width());
+            Hashes.putInt(digest, palette.height());
+
+            for(int y = 0; y < palette.height(); ++y) {
+                for(int x = 0; x < palette.width(); ++x) {
+                    Hashes.putInt(digest, palette.argb(x, y));
+                }
+            }
+        }
+
+        Scale scale = fractal.scale();
+
+        for(double d : new double[]{scale.xx, scale.xy, scale.yx, scale.yy, scale.cx, scale.cy}) {
+            long bits = Double.doubleToLongBits(d);
+            Hashes.putInt(digest, (int) (bits >>> 32));
+            Hashes.putInt(digest, (int) bits);
+        }
+
+        Hashes.putInt(digest, width);
+        Hashes.putInt(digest, height);
+
+        return Hashes.hex(digest);
+    }
+
+    /**
+     * @param imageKey see imageKey(Fractal, int, int).
+     * @return the key of the tile x0/y0 (inclusive) to x1/y1 (exclusive).
+     */
+    public static String key(String imageKey, int x0, int y0, int x1, int y1) {
+        MessageDigest digest = Hashes.sha256();
+
+        digest.update(imageKey.getBytes(StandardCharsets.US_ASCII));
+
+        for(int i : new int[]{x0, y0, x1, y1}) {
+            Hashes.putInt(digest, i);
+        }
+
+        return Hashes.hex(digest);
+    }
+
+    /**
+     * @return the pixels of the tile or null if it is not cached. The
+     * array is shared and must not be modified.
+     */
+    public synchronized int[] get(String key) throws IOException {
+        int[] pixels = memory.get(key);
+
+        if(pixels != null) {
+            return pixels;
+        }
+
+        if(directory == null || disk.get(key) == null) {
+            return null;
+        }
+
+        Path file = file(key);
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            pixels = new int[in.readInt()];
+
+            for(int i = 0; i < pixels.length; ++i) {
+                pixels[i] = in.readInt();
+            }
+        } catch(IOException e) {
+            // eg deleted by someone else.
+            removeFromDisk(key);
+            return null;
+        }
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        putInMemory(key, pixels);
+
+        return pixels;
+    }
+
+    public synchronized void put(String key, int[] pixels) throws IOException {
+        putInMemory(key, pixels);
+
+        if(directory == null || disk.containsKey(key)) {
+            return;
+        }
+
+        Path file = file(key);
+        Path tmp = directory.resolve(key + ".tmp");
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(pixels.length);
+
+            for(int pixel : pixels) {
+                out.writeInt(pixel);
+            }
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long size = Files.size(file);
+        disk.put(key, size);
+        diskBytes += size;
+
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+
+        while(diskBytes > maxDiskBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+
+            if(eldest.getKey().equals(key)) {
+                continue;
+            }
+
+            Files.deleteIfExists(file(eldest.getKey()));
+            diskBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    private void putInMemory(String key, int[] pixels) {
+        int[] old = memory.put(key, pixels);
+
+        if(old != null) {
+            memoryBytes -= 4L * old.length;
+        }
+
+        memoryBytes += 4L * pixels.length;
+
+        Iterator<Map.Entry<String, int[]>> it = memory.entrySet().iterator();
+
+        while(memoryBytes > maxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, int[]> eldest = it.next();
+
+            if(eldest.getKey().equals(key)) {
+                continue;
+            }
+
+            memoryBytes -= 4L * eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        Long size = disk.remove(key);
+
+        if(size != null) {
+            diskBytes -= size;
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+}
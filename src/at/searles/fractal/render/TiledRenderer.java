@@ -0,0 +1,152 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a program in parallel on a fork/join pool. The image is split
+ * into tiles. Since the cost of pixels varies a lot (lakes run up to
+ * maxdepth), a tile that is being rendered splits off its remaining rows
+ * as soon as there are idle workers.
+ */
+public class TiledRenderer {
+
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Tiles with fewer remaining rows are not split any further.
+     */
+    private static final int MIN_SPLIT_ROWS = 4;
+
+    private final Program program;
+    private final ForkJoinPool pool;
+    private final ExecutorFactory mode;
+
+    public TiledRenderer(Program program) {
+        this(program, ForkJoinPool.commonPool(), ExecutionMode.Interpreted);
+    }
+
+    public TiledRenderer(Program program, ForkJoinPool pool, ExecutorFactory mode) {
+        this.program = program;
+        this.pool = pool;
+        this.mode = mode;
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    /**
+     * Renders the image band by band into a PNG so that images larger
+     * than the heap can be created. Only one band of tiles is kept in memory.
+     */
+    public void renderPng(OutputStream out) throws IOException {
+        int width = program.mapping().width;
+        int height = program.mapping().height;
+
+        BandBitmap band = new BandBitmap(width, height, TILE_SIZE);
+        PngEncoder encoder = new PngEncoder(out, width, height);
+
+        for(int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+            int y1 = Math.min(height, y0 + TILE_SIZE);
+
+            band.moveTo(y0, y1);
+            pool.invoke(new Tile(band, 0, y0, width, y1));
+
+            for(int y = y0; y < y1; ++y) {
+                encoder.writeRow(band.pixels(), (y - y0) * width);
+            }
+        }
+
+        encoder.finish();
+    }
+
+    /**
+     * Renders the whole image. The bitmap must have the size of the
+     * mapping of the program.
+     */
+    public void render(Bitmap bitmap) {
+        render(bitmap, 0, 0, bitmap.width(), bitmap.height());
+    }
+
+    /**
+     * Renders the rectangle x0/y0 (inclusive) to x1/y1 (exclusive).
+     */
+    public void render(Bitmap bitmap, int x0, int y0, int x1, int y1) {
+        if(bitmap.width() != program.mapping().width || bitmap.height() != program.mapping().height) {
+            throw new IllegalArgumentException("bitmap size does not match program");
+        }
+
+        pool.invoke(new Tile(bitmap, x0, y0, x1, y1));
+    }
+
+    private class Tile extends RecursiveAction {
+        final Bitmap bitmap;
+        final int x0, y0, x1;
+        int y1;
+
+        Tile(Bitmap bitmap, int x0, int y0, int x1, int y1) {
+            this.bitmap = bitmap;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            int w = x1 - x0;
+            int h = y1 - y0;
+
+            if(w > TILE_SIZE || h > TILE_SIZE) {
+                // split along the longer side.
+                if(w >= h) {
+                    int xm = x0 + w / 2;
+                    invokeAll(new Tile(bitmap, x0, y0, xm, y1), new Tile(bitmap, xm, y0, x1, y1));
+                } else {
+                    int ym = y0 + h / 2;
+                    invokeAll(new Tile(bitmap, x0, y0, x1, ym), new Tile(bitmap, x0, ym, x1, y1));
+                }
+
+                return;
+            }
+
+            renderRows();
+        }
+
+        private void renderRows() {
+            Executor executor = mode.executor(program);
+            int[] row = new int[x1 - x0];
+            Tile split = null;
+
+            for(int y = y0; y < y1; ++y) {
+                executor.execute(x0, y, row.length, row);
+
+                for(int x = x0; x < x1; ++x) {
+                    bitmap.setPixel(x, y, row[x - x0]);
+                }
+
+                int remaining = y1 - y - 1;
+
+                if(split == null && remaining >= 2 * MIN_SPLIT_ROWS && getSurplusQueuedTaskCount() == 0) {
+                    // Someone might be idle. Hand over the lower half of the remaining rows.
+                    int ym = y + 1 + remaining / 2;
+                    split = new Tile(bitmap, x0, ym, x1, y1);
+                    split.fork();
+                    y1 = ym;
+                }
+            }
+
+            if(split != null) {
+                split.join();
+            }
+        }
+    }
+}
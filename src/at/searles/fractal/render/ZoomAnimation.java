@@ -0,0 +1,287 @@
+package at.searles.fractal.render;
+
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Program;
+import at.searles.fractal.vm.ScaleMapping;
+import at.searles.math.Scale;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders the frames of a zoom animation. Consecutive frames only differ
+ * in their scale, hence a pixel of a frame is copied from the previous
+ * frame if a sample of it is closer than a tolerance to its center. Only
+ * the remaining pixels are evaluated.
+ *
+ * Which pixels are copied only depends on the scales, so it is planned
+ * before anything is evaluated. The evaluation of up to 'lookAhead'
+ * frames runs in parallel; copying waits for the previous frame.
+ */
+public class ZoomAnimation {
+
+    public static final double DEFAULT_TOLERANCE = 0.5;
+    public static final int DEFAULT_LOOK_AHEAD = 4;
+
+    private static final int ROWS_PER_TASK = 8;
+
+    public interface FrameConsumer {
+        /**
+         * Called in the order of frames.
+         */
+        void accept(int index, IntBitmap frame) throws IOException;
+    }
+
+    private final Program program;
+    private final List<Scale> scales;
+    private final ForkJoinPool pool;
+    private final ExecutorFactory mode;
+    private final int lookAhead;
+    private final double tolerance;
+
+    private final int width;
+    private final int height;
+
+    public ZoomAnimation(Program program, List<Scale> scales) {
+        this(program, scales, ForkJoinPool.commonPool(), ExecutionMode.Interpreted, DEFAULT_LOOK_AHEAD, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param program Program of which the mapping defines the size of frames.
+     * @param scales Scales of all frames.
+     * @param tolerance Maximum distance in pixels of a copied sample to the pixel center.
+     */
+    public ZoomAnimation(Program program, List<Scale> scales, ForkJoinPool pool, ExecutorFactory mode, int lookAhead, double tolerance) {
+        if(lookAhead < 1) {
+            throw new IllegalArgumentException("lookAhead must be positive");
+        }
+
+        this.program = program;
+        this.scales = scales;
+        this.pool = pool;
+        this.mode = mode;
+        this.lookAhead = lookAhead;
+        this.tolerance = tolerance;
+        this.width = program.mapping().width;
+        this.height = program.mapping().height;
+    }
+
+    /**
+     * Scales for a zoom through keyframes with 'steps' frames from one
+     * keyframe to the next. The zoom factor changes exponentially and the
+     * center moves in proportion to the zoom so that the target stays in place.
+     */
+    public static List<Scale> interpolate(List<Scale> keyframes, int steps) {
+        List<Scale> scales = new ArrayList<>();
+
+        for(int k = 0; k + 1 < keyframes.size(); ++k) {
+            Scale a = keyframes.get(k);
+            Scale b = keyframes.get(k + 1);
+
+            double ma = Math.sqrt(Math.abs(a.xx * a.yy - a.xy * a.yx));
+            double mb = Math.sqrt(Math.abs(b.xx * b.yy - b.xy * b.yx));
+
+            for(int i = 0; i < steps; ++i) {
+                double t = (double) i / steps;
+
+                double m = ma * Math.pow(mb / ma, t);
+                double u = ma == mb ? t : (ma - m) / (ma - mb);
+
+                // linear part is interpolated linearly and then normalized to magnitude m.
+                double xx = a.xx + (b.xx - a.xx) * t, xy = a.xy + (b.xy - a.xy) * t;
+                double yx = a.yx + (b.yx - a.yx) * t, yy = a.yy + (b.yy - a.yy) * t;
+                double f = m / Math.sqrt(Math.abs(xx * yy - xy * yx));
+
+                scales.add(new Scale(xx * f, xy * f, yx * f, yy * f,
+                        a.cx + (b.cx - a.cx) * u, a.cy + (b.cy - a.cy) * u));
+            }
+        }
+
+        if(!keyframes.isEmpty()) {
+            scales.add(keyframes.get(keyframes.size() - 1));
+        }
+
+        return scales;
+    }
+
+    /**
+     * Renders all frames and passes them to the consumer.
+     */
+    public void render(FrameConsumer consumer) throws IOException {
+        ArrayDeque<Frame> window = new ArrayDeque<>();
+
+        Plan previousPlan = null;
+        Frame previous = null;
+
+        int next = 0;
+
+        while(next < scales.size() || !window.isEmpty()) {
+            // keep up to lookAhead frames in evaluation.
+            while(next < scales.size() && window.size() < lookAhead) {
+                previousPlan = plan(next, previousPlan);
+
+                Frame frame = new Frame(next, previousPlan);
+                frame.evaluation = pool.submit(frame.evaluate());
+                window.add(frame);
+
+                next++;
+            }
+
+            Frame frame = window.poll();
+            frame.evaluation.join();
+
+            if(previous != null) {
+                frame.copyFrom(previous);
+            }
+
+            consumer.accept(frame.index, frame.bitmap);
+            previous = frame;
+        }
+    }
+
+    private ScaleMapping mapping(int index) {
+        return new ScaleMapping(scales.get(index), width, height);
+    }
+
+    /**
+     * Decides which pixels of a frame are copied from the previous one.
+     */
+    private Plan plan(int index, Plan previous) {
+        Plan plan = new Plan(width * height);
+
+        ScaleMapping current = mapping(index);
+        ScaleMapping last = previous != null ? mapping(index - 1) : null;
+
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                int i = y * width + x;
+
+                plan.sampleX[i] = x;
+                plan.sampleY[i] = y;
+                plan.source[i] = -1;
+
+                if(last == null) {
+                    continue;
+                }
+
+                // pixel of the previous frame at this position
+                double cx = current.x(x, y), cy = current.y(x, y);
+                long px = Math.round(last.pixelX(cx, cy));
+                long py = Math.round(last.pixelY(cx, cy));
+
+                double best = tolerance;
+
+                // samples of copied pixels are not at the pixel center, hence check all neighbours.
+                for(long ny = Math.max(0, py - 1); ny <= Math.min(height - 1, py + 1); ++ny) {
+                    for(long nx = Math.max(0, px - 1); nx <= Math.min(width - 1, px + 1); ++nx) {
+                        int j = (int) (ny * width + nx);
+
+                        // the actual sample position of that pixel in this frame.
+                        double sx = last.x(previous.sampleX[j], previous.sampleY[j]);
+                        double sy = last.y(previous.sampleX[j], previous.sampleY[j]);
+
+                        double qx = current.pixelX(sx, sy);
+                        double qy = current.pixelY(sx, sy);
+
+                        double distance = Math.hypot(qx - x, qy - y);
+
+                        if(distance <= best) {
+                            best = distance;
+                            plan.source[i] = j;
+                            plan.sampleX[i] = qx;
+                            plan.sampleY[i] = qy;
+                        }
+                    }
+                }
+            }
+        }
+
+        return plan;
+    }
+
+    private static class Plan {
+        /**
+         * Index of the pixel in the previous frame or -1 if the pixel is evaluated.
+         */
+        final int[] source;
+        final double[] sampleX;
+        final double[] sampleY;
+
+        Plan(int size) {
+            this.source = new int[size];
+            this.sampleX = new double[size];
+            this.sampleY = new double[size];
+        }
+    }
+
+    private class Frame {
+        final int index;
+        final Plan plan;
+        final IntBitmap bitmap;
+        final Program frameProgram;
+
+        ForkJoinTask<?> evaluation;
+
+        Frame(int index, Plan plan) {
+            this.index = index;
+            this.plan = plan;
+            this.bitmap = new IntBitmap(width, height);
+            this.frameProgram = program.withMapping(mapping(index));
+        }
+
+        RecursiveAction evaluate() {
+            return new Rows(0, height);
+        }
+
+        void copyFrom(Frame previous) {
+            int[] pixels = bitmap.pixels();
+            int[] source = previous.bitmap.pixels();
+
+            for(int i = 0; i < pixels.length; ++i) {
+                int j = plan.source[i];
+
+                if(j >= 0) {
+                    pixels[i] = source[j];
+                }
+            }
+        }
+
+        private class Rows extends RecursiveAction {
+            final int y0, y1;
+
+            Rows(int y0, int y1) {
+                this.y0 = y0;
+                this.y1 = y1;
+            }
+
+            @Override
+            protected void compute() {
+                if(y1 - y0 > ROWS_PER_TASK) {
+                    int ym = (y0 + y1) / 2;
+                    invokeAll(new Rows(y0, ym), new Rows(ym, y1));
+                    return;
+                }
+
+                Executor executor = mode.executor(frameProgram);
+                int[] pixels = bitmap.pixels();
+
+                for(int y = y0; y < y1; ++y) {
+                    for(int x = 0; x < width; ++x) {
+                        int i = y * width + x;
+
+                        if(plan.source[i] < 0) {
+                            pixels[i] = executor.execute(x, y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
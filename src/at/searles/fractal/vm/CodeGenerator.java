@@ -0,0 +1,314 @@
+package at.searles.fractal.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the class file of a JitCode-implementation for a program.
+ * The generated method 'run' contains the control flow of the program
+ * as straight jvm bytecode and calls each op from its own call site.
+ * Since every call site only sees one op, HotSpot can inline all of them.
+ *
+ * Class files are generated in version 49 so that no stack map frames
+ * are needed.
+ */
+class CodeGenerator {
+
+    private static final int VERSION = 49;
+
+    /**
+     * HotSpot does not compile larger methods (HugeMethodLimit), they
+     * would run slower than the interpreter.
+     */
+    private static final int MAX_METHOD_SIZE = 8000;
+
+    private static final String OP = "at/searles/fractal/vm/Op";
+    private static final String JIT_CODE = "at/searles/fractal/vm/JitCode";
+    private static final String OPS_DESCRIPTOR = "[L" + OP + ";";
+
+    // jvm opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ASTORE_2 = 0x4d;
+    private static final int ISTORE_3 = 0x3e;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int AALOAD = 0x32;
+    private static final int POP = 0x57;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int GOTO = 0xa7;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    private final String className;
+
+    private final ByteArrayOutputStream pool;
+    private final Map<String, Integer> poolIndices;
+    private int poolCount;
+
+    CodeGenerator(String className) {
+        this.className = className;
+        this.pool = new ByteArrayOutputStream();
+        this.poolIndices = new HashMap<>();
+        this.poolCount = 1;
+    }
+
+    /**
+     * @throws UnsupportedInstructionException if the program contains dynamic
+     * jumps or if it is too large for one method.
+     */
+    byte[] generate(Program program) {
+        byte[] runCode = runMethod(program);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            int thisClass = classRef(className);
+            int superClass = classRef("java/lang/Object");
+            int jitCode = classRef(JIT_CODE);
+            int opsField = fieldRef(className, "ops", OPS_DESCRIPTOR);
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int opsName = utf8("ops");
+            int opsDescriptor = utf8(OPS_DESCRIPTOR);
+            int initName = utf8("<init>");
+            int initDescriptor = utf8("(" + OPS_DESCRIPTOR + ")V");
+            int runName = utf8("run");
+            int runDescriptor = utf8("([D)V");
+            int codeName = utf8("Code");
+
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(jitCode);
+
+            // fields
+            out.writeShort(1);
+            out.writeShort(0x0012); // private final
+            out.writeShort(opsName);
+            out.writeShort(opsDescriptor);
+            out.writeShort(0);
+
+            // methods
+            out.writeShort(2);
+
+            byte[] initCode = {
+                    ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit,
+                    ALOAD_0, ALOAD_1, (byte) PUTFIELD, (byte) (opsField >> 8), (byte) opsField,
+                    (byte) RETURN
+            };
+
+            writeMethod(out, initName, initDescriptor, codeName, 2, 2, initCode);
+            writeMethod(out, runName, runDescriptor, codeName, 3, 4, runCode);
+
+            out.writeShort(0); // attributes
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen.
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Locals: 0 = this, 1 = registers, 2 = ops, 3 = result of the last op.
+     */
+    private byte[] runMethod(Program program) {
+        int count = program.size();
+
+        int opsField = fieldRef(className, "ops", OPS_DESCRIPTOR);
+        int execute = interfaceMethodRef(OP, "execute", "([D)I");
+
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        int[] labels = new int[count + 1];
+        List<int[]> fixups = new ArrayList<>(); // position of branch opcode, target index
+
+        code.write(ALOAD_0);
+        code.write(GETFIELD);
+        writeShort(code, opsField);
+        code.write(ASTORE_2);
+
+        for(int i = 0; i < count; ++i) {
+            int[] successors = program.successors[i];
+
+            if(successors == null) {
+                throw new UnsupportedInstructionException("dynamic jump in " + program.opcode(i));
+            }
+
+            labels[i] = code.size();
+
+            code.write(ALOAD_2);
+            pushInt(code, i);
+            code.write(AALOAD);
+            code.write(ALOAD_1);
+            code.write(INVOKEINTERFACE);
+            writeShort(code, execute);
+            code.write(2);
+            code.write(0);
+
+            int last = successors.length - 1;
+
+            if(last < 0) {
+                throw new UnsupportedInstructionException("no successor in " + program.opcode(i));
+            }
+
+            if(last > 0) {
+                code.write(ISTORE_3);
+
+                for(int k = 0; k < last; ++k) {
+                    code.write(ILOAD_3);
+                    pushInt(code, successors[k]);
+                    fixups.add(new int[]{code.size(), successors[k]});
+                    code.write(IF_ICMPEQ);
+                    writeShort(code, 0);
+                }
+            } else {
+                code.write(POP);
+            }
+
+            if(successors[last] != i + 1) {
+                fixups.add(new int[]{code.size(), successors[last]});
+                code.write(GOTO);
+                writeShort(code, 0);
+            }
+        }
+
+        labels[count] = code.size();
+        code.write(RETURN);
+
+        byte[] bytes = code.toByteArray();
+
+        if(bytes.length > MAX_METHOD_SIZE) {
+            throw new UnsupportedInstructionException("program too large for jit");
+        }
+
+        for(int[] fixup : fixups) {
+            int offset = labels[fixup[1]] - fixup[0];
+            bytes[fixup[0] + 1] = (byte) (offset >> 8);
+            bytes[fixup[0] + 2] = (byte) offset;
+        }
+
+        return bytes;
+    }
+
+    private void pushInt(ByteArrayOutputStream code, int value) {
+        if(value >= -1 && value <= 5) {
+            code.write(ICONST_0 + value);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            writeShort(code, value);
+        } else {
+            code.write(LDC_W);
+            writeShort(code, intConstant(value));
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    // === Constant pool ===
+
+    private int entry(String key, int tag, int... shorts) {
+        Integer index = poolIndices.get(key);
+
+        if(index != null) {
+            return index;
+        }
+
+        pool.write(tag);
+
+        for(int s : shorts) {
+            writeShort(pool, s);
+        }
+
+        index = poolCount++;
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    private int utf8(String s) {
+        Integer index = poolIndices.get("U" + s);
+
+        if(index != null) {
+            return index;
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(pool);
+            out.writeByte(1);
+            out.writeUTF(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        index = poolCount++;
+        poolIndices.put("U" + s, index);
+        return index;
+    }
+
+    private int intConstant(int value) {
+        return entry("I" + value, 3, value >>> 16, value & 0xffff);
+    }
+
+    private int classRef(String name) {
+        return entry("C" + name, 7, utf8(name));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return entry("F" + owner + "." + name + ":" + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + ":" + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int interfaceMethodRef(String owner, String name, String descriptor) {
+        return entry("IM" + owner + "." + name + ":" + descriptor, 11, classRef(owner), nameAndType(name, descriptor));
+    }
+}
@@ -0,0 +1,151 @@
+package at.searles.fractal.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs optimization passes over the int-code until none of them
+ * modifies it anymore. Code that cannot be decoded (eg because it
+ * contains relative jumps) is returned unchanged. Optimizers are
+ * immutable; get() runs all passes, without(...) creates one that
+ * skips some of them.
+ */
+public class CodeOptimizer {
+
+    /**
+     * Upper bound of rounds in case passes keep undoing each other.
+     */
+    private static final int MAX_ROUNDS = 16;
+
+    private static CodeOptimizer singleton;
+
+    public static synchronized CodeOptimizer get() {
+        if(singleton == null) {
+            singleton = new CodeOptimizer();
+        }
+
+        return singleton;
+    }
+
+    private final List<OptimizationPass> passes;
+    private final Set<String> disabled;
+
+    private CodeOptimizer() {
+        this(Arrays.asList(
+                new ConstantFolding(),
+                new CopyPropagation(),
+                new DeadStoreElimination(),
+                new JumpThreading()
+        ), Collections.emptySet());
+    }
+
+    private CodeOptimizer(List<OptimizationPass> passes, Set<String> disabled) {
+        this.passes = passes;
+        this.disabled = disabled;
+    }
+
+    /**
+     * @return an optimizer that does not run the passes with the given names.
+     */
+    public CodeOptimizer without(String...names) {
+        Set<String> disabled = new HashSet<>(this.disabled);
+        disabled.addAll(Arrays.asList(names));
+
+        return new CodeOptimizer(passes, Collections.unmodifiableSet(disabled));
+    }
+
+    /**
+     * @return the names of all passes in the order in which they run.
+     */
+    public List<String> passNames() {
+        List<String> names = new ArrayList<>(passes.size());
+
+        for(OptimizationPass pass : passes) {
+            names.add(pass.name());
+        }
+
+        return names;
+    }
+
+    public boolean isEnabled(String name) {
+        return !disabled.contains(name);
+    }
+
+    /**
+     * Result of optimize: The code and the number of words that each
+     * pass removed from it.
+     */
+    public static final class Result {
+        public final int[] code;
+        public final int originalSize;
+
+        /**
+         * false if the code could not be decoded (eg because it contains
+         * relative jumps). Then, code is the original code.
+         */
+        public final boolean isDecoded;
+
+        /**
+         * Removed words by pass name. Passes that did not modify the
+         * code are missing.
+         */
+        public final Map<String, Integer> removedWords;
+
+        Result(int[] code, int originalSize, boolean isDecoded, Map<String, Integer> removedWords) {
+            this.code = code;
+            this.originalSize = originalSize;
+            this.isDecoded = isDecoded;
+            this.removedWords = Collections.unmodifiableMap(removedWords);
+        }
+
+        @Override
+        public String toString() {
+            if(!isDecoded) {
+                return String.format("%5d words, not decoded", originalSize);
+            }
+
+            return String.format("%5d -> %5d words %s", originalSize, code.length, removedWords);
+        }
+    }
+
+    public Result optimize(int[] code) {
+        IntCodeGraph graph = IntCodeGraph.decode(code);
+
+        if(graph == null) {
+            return new Result(code, code.length, false, Collections.emptyMap());
+        }
+
+        Map<String, Integer> removedWords = new LinkedHashMap<>();
+
+        try {
+            boolean modified = true;
+
+            for(int round = 0; modified && round < MAX_ROUNDS; ++round) {
+                modified = false;
+
+                for(OptimizationPass pass : passes) {
+                    if(!isEnabled(pass.name())) {
+                        continue;
+                    }
+
+                    int size = graph.codeSize();
+
+                    if(pass.apply(graph)) {
+                        modified = true;
+                        removedWords.merge(pass.name(), size - graph.codeSize(), Integer::sum);
+                    }
+                }
+            }
+        } catch(UnsupportedInstructionException e) {
+            return new Result(code, code.length, false, Collections.emptyMap());
+        }
+
+        return new Result(graph.encode(), code.length, true, removedWords);
+    }
+}
@@ -0,0 +1,126 @@
+package at.searles.fractal.vm;
+
+/**
+ * Color conversions on quats in the register file. Rgb-quats contain
+ * r, g, b and alpha in the range 0 to 1, lab-quats contain L (0 to 100),
+ * a, b and alpha (0 to 1). The white point is D65.
+ */
+final class ColorOps {
+
+    private static final double XN = 0.95047;
+    private static final double YN = 1.0;
+    private static final double ZN = 1.08883;
+
+    private static final double DELTA = 6. / 29.;
+
+    private ColorOps() {}
+
+    static void int2rgb(int argb, double[] r, int t) {
+        r[t] = ((argb >> 16) & 0xff) / 255.;
+        r[t + 2] = ((argb >> 8) & 0xff) / 255.;
+        r[t + 4] = (argb & 0xff) / 255.;
+        r[t + 6] = ((argb >> 24) & 0xff) / 255.;
+    }
+
+    static int rgb2int(double red, double green, double blue, double alpha) {
+        return channel(alpha) << 24 | channel(red) << 16 | channel(green) << 8 | channel(blue);
+    }
+
+    static void int2lab(int argb, double[] r, int t) {
+        int2rgb(argb, r, t);
+        rgb2lab(r, t, t);
+    }
+
+    static int lab2int(double l, double a, double b, double alpha) {
+        double fy = (l + 16.) / 116.;
+        double x = XN * finv(fy + a / 500.);
+        double y = YN * finv(fy);
+        double z = ZN * finv(fy - b / 200.);
+
+        double red = gamma(3.2404542 * x - 1.5371385 * y - 0.4985314 * z);
+        double green = gamma(-0.9692660 * x + 1.8760108 * y + 0.0415560 * z);
+        double blue = gamma(0.0556434 * x - 0.2040259 * y + 1.0572252 * z);
+
+        return rgb2int(red, green, blue, alpha);
+    }
+
+    static void rgb2lab(double[] r, int src, int t) {
+        double red = linear(r[src]);
+        double green = linear(r[src + 2]);
+        double blue = linear(r[src + 4]);
+        double alpha = r[src + 6];
+
+        double fx = f((0.4124564 * red + 0.3575761 * green + 0.1804375 * blue) / XN);
+        double fy = f((0.2126729 * red + 0.7151522 * green + 0.0721750 * blue) / YN);
+        double fz = f((0.0193339 * red + 0.1191920 * green + 0.9503041 * blue) / ZN);
+
+        r[t] = 116. * fy - 16.;
+        r[t + 2] = 500. * (fx - fy);
+        r[t + 4] = 200. * (fy - fz);
+        r[t + 6] = alpha;
+    }
+
+    static void lab2rgb(double[] r, int src, int t) {
+        double fy = (r[src] + 16.) / 116.;
+        double x = XN * finv(fy + r[src + 2] / 500.);
+        double y = YN * finv(fy);
+        double z = ZN * finv(fy - r[src + 4] / 200.);
+        double alpha = r[src + 6];
+
+        r[t] = gamma(3.2404542 * x - 1.5371385 * y - 0.4985314 * z);
+        r[t + 2] = gamma(-0.9692660 * x + 1.8760108 * y + 0.0415560 * z);
+        r[t + 4] = gamma(0.0556434 * x - 0.2040259 * y + 1.0572252 * z);
+        r[t + 6] = alpha;
+    }
+
+    /**
+     * Alpha blending of the quat at 'top' over the one at 'bottom'.
+     */
+    static void over(double[] r, int top, int bottom, int t) {
+        double a0 = r[top + 6];
+        double a1 = r[bottom + 6] * (1 - a0);
+        double alpha = a0 + a1;
+
+        if(alpha <= 0) {
+            r[t] = r[t + 2] = r[t + 4] = r[t + 6] = 0;
+            return;
+        }
+
+        double c0 = (r[top] * a0 + r[bottom] * a1) / alpha;
+        double c1 = (r[top + 2] * a0 + r[bottom + 2] * a1) / alpha;
+        double c2 = (r[top + 4] * a0 + r[bottom + 4] * a1) / alpha;
+
+        r[t] = c0;
+        r[t + 2] = c1;
+        r[t + 4] = c2;
+        r[t + 6] = alpha;
+    }
+
+    private static int channel(double value) {
+        if(!(value > 0)) {
+            return 0; // also NaN
+        }
+
+        if(value >= 1) {
+            return 0xff;
+        }
+
+        return (int) (value * 255. + 0.5);
+    }
+
+    private static double linear(double c) {
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static double gamma(double c) {
+        return c <= 0.0031308 ? 12.92 * c : 1.055 * Math.pow(c, 1. / 2.4) - 0.055;
+    }
+
+    private static double f(double t) {
+        return t > DELTA * DELTA * DELTA ? Math.cbrt(t) : t / (3 * DELTA * DELTA) + 4. / 29.;
+    }
+
+    private static double finv(double t) {
+        return t > DELTA ? t * t * t : 3 * DELTA * DELTA * (t - 4. / 29.);
+    }
+}
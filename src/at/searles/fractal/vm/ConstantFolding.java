@@ -0,0 +1,146 @@
+package at.searles.fractal.vm;
+
+/**
+ * Evaluates instructions whose arguments are all constants (eg extern
+ * values that were inlined as constants). Pure instructions are replaced
+ * by a mov of their result, conditions by a jump to the label that is
+ * taken. Instructions are evaluated by the java vm itself.
+ */
+class ConstantFolding implements OptimizationPass {
+
+    @Override
+    public String name() {
+        return "constant-folding";
+    }
+
+    @Override
+    public boolean apply(IntCodeGraph graph) {
+        boolean modified = false;
+
+        for(int i = 0; i < graph.size(); ++i) {
+            IntCodeGraph.Instruction instruction = graph.get(i);
+
+            if(instruction.isMov() || instruction.isJump() || instruction.isNext()) {
+                continue;
+            }
+
+            boolean isCondition = instruction.labels.length > 0;
+
+            if(!isCondition && !instruction.isPure()) {
+                continue;
+            }
+
+            Opcode opcode = instruction.opcode;
+            int constants = isCondition ? opcode.arity() : opcode.arity() - 1;
+
+            // instructions without arguments are not folded.
+            boolean allConstant = constants > 0;
+
+            for(int k = 0; k < constants; ++k) {
+                allConstant &= !opcode.isRegister(k);
+            }
+
+            if(!allConstant) {
+                continue;
+            }
+
+            IntCodeGraph.Instruction folded = isCondition ? foldCondition(instruction) : foldPure(instruction);
+
+            if(folded != null) {
+                graph.replace(i, folded);
+                modified = true;
+            }
+        }
+
+        return modified;
+    }
+
+    private static IntCodeGraph.Instruction foldCondition(IntCodeGraph.Instruction instruction) {
+        Evaluation evaluation = new Evaluation(instruction);
+        int label = evaluation.op.execute(evaluation.registers);
+
+        if(label < 0 || label >= instruction.labels.length) {
+            return null;
+        }
+
+        return IntCodeGraph.jump(instruction.labels[label]);
+    }
+
+    private static IntCodeGraph.Instruction foldPure(IntCodeGraph.Instruction instruction) {
+        Opcode opcode = instruction.opcode;
+        int t = opcode.arity() - 1;
+        VmType type = opcode.type(t);
+
+        Evaluation evaluation = new Evaluation(instruction);
+        evaluation.op.execute(evaluation.registers);
+
+        double[] r = evaluation.registers;
+        int slot = evaluation.slots[t];
+
+        int[] constant = new int[type.words];
+
+        if(type == VmType.Int) {
+            double value = r[slot];
+
+            if(value != (int) value) {
+                return null;
+            }
+
+            constant[0] = (int) value;
+        } else {
+            for(int c = 0; c < type.components(); ++c) {
+                long bits = Double.doubleToRawLongBits(r[slot + c * VmType.STRIDE]);
+                constant[c * VmType.STRIDE] = (int) bits;
+                constant[c * VmType.STRIDE + 1] = (int) (bits >>> 32);
+            }
+        }
+
+        return IntCodeGraph.movConstant(type, constant, instruction.register(t));
+    }
+
+    /**
+     * The op of an instruction bound to a scratch register file that contains
+     * its constants. Labels evaluate to their number.
+     */
+    private static class Evaluation {
+        final double[] registers;
+        final int[] slots;
+        final Op op;
+
+        Evaluation(IntCodeGraph.Instruction instruction) {
+            Opcode opcode = instruction.opcode;
+
+            this.slots = new int[opcode.arity()];
+            int[] words = new int[opcode.arity()];
+
+            int size = 0;
+
+            for(int i = 0; i < slots.length; ++i) {
+                slots[i] = size;
+                size += opcode.type(i).words;
+            }
+
+            this.registers = new double[size];
+
+            for(int i = 0; i < slots.length; ++i) {
+                words[i] = instruction.args[i][0];
+
+                if(!opcode.isRegister(i)) {
+                    opcode.type(i).load(instruction.args[i], 0, registers, slots[i]);
+                }
+            }
+
+            int[] labels = new int[instruction.labels.length];
+            int[] identity = new int[labels.length];
+
+            for(int k = 0; k < labels.length; ++k) {
+                labels[k] = identity[k] = k;
+            }
+
+            Operands operands = new Operands(opcode, slots, words, labels, -1, 0, identity,
+                    new PaletteTable[0], null);
+
+            this.op = Semantics.entry(opcode).binder.bind(operands);
+        }
+    }
+}
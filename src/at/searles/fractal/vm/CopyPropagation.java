@@ -0,0 +1,124 @@
+package at.searles.fractal.vm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Within basic blocks, reads of the target of a mov are replaced by its
+ * source until either of them is overwritten. Constant sources are only
+ * propagated if the instruction set has a signature with a constant in
+ * that place. The movs themselves are removed by dead store elimination
+ * if they are not needed anymore.
+ */
+class CopyPropagation implements OptimizationPass {
+
+    @Override
+    public String name() {
+        return "copy-propagation";
+    }
+
+    private static class Copy {
+        final int target;
+        final VmType type;
+        final boolean isConstant;
+        final int[] source;
+
+        Copy(int target, VmType type, boolean isConstant, int[] source) {
+            this.target = target;
+            this.type = type;
+            this.isConstant = isConstant;
+            this.source = source;
+        }
+
+        boolean overlaps(int from, int to) {
+            if(target < to && from < target + type.words) {
+                return true;
+            }
+
+            return !isConstant && source[0] < to && from < source[0] + type.words;
+        }
+    }
+
+    @Override
+    public boolean apply(IntCodeGraph graph) {
+        boolean modified = false;
+        boolean[] targets = graph.targets();
+
+        List<Copy> copies = new ArrayList<>();
+
+        for(int i = 0; i < graph.size(); ++i) {
+            if(targets[i]) {
+                // new basic block
+                copies.clear();
+            }
+
+            IntCodeGraph.Instruction instruction = graph.get(i);
+
+            for(int k = 0; k < instruction.args.length; ++k) {
+                if(!instruction.isReadOnlyRegister(k)) {
+                    continue;
+                }
+
+                for(Copy copy : copies) {
+                    if(copy.target == instruction.register(k) && copy.type == instruction.opcode.type(k)) {
+                        modified |= substitute(instruction, k, copy);
+                        break;
+                    }
+                }
+            }
+
+            int t = instruction.target();
+
+            if(t >= 0) {
+                int from = instruction.register(t);
+                int to = from + instruction.opcode.type(t).words;
+
+                for(Iterator<Copy> it = copies.iterator(); it.hasNext(); ) {
+                    if(it.next().overlaps(from, to)) {
+                        it.remove();
+                    }
+                }
+
+                if(instruction.isMov() && instruction.opcode.type(0) == instruction.opcode.type(1)) {
+                    boolean isConstant = !instruction.opcode.isRegister(0);
+
+                    if(isConstant || instruction.register(0) != from) {
+                        copies.add(new Copy(from, instruction.opcode.type(1), isConstant, instruction.args[0]));
+                    }
+                }
+            }
+
+            if(instruction.labels.length > 0 || instruction.isJump()) {
+                copies.clear();
+            }
+        }
+
+        return modified;
+    }
+
+    private static boolean substitute(IntCodeGraph.Instruction instruction, int k, Copy copy) {
+        if(!copy.isConstant) {
+            if(instruction.args[k][0] == copy.source[0]) {
+                return false;
+            }
+
+            instruction.args[k] = copy.source.clone();
+            return true;
+        }
+
+        boolean[] registers = IntCodeGraph.registerFlags(instruction.opcode);
+        registers[k] = false;
+
+        Opcode opcode = IntCodeGraph.find(instruction.opcode.instruction, instruction.opcode.typeKey(), registers);
+
+        if(opcode == null) {
+            return false;
+        }
+
+        instruction.opcode = opcode;
+        instruction.args[k] = copy.source.clone();
+
+        return true;
+    }
+}
@@ -0,0 +1,191 @@
+package at.searles.fractal.vm;
+
+/**
+ * Complex and quaternion functions on the register file. The real part
+ * of a complex number at slot a is r[a], the imaginary part r[a + 2].
+ * All functions first read all arguments so that the target may be
+ * the same register as an argument.
+ */
+final class CplxOps {
+
+    private CplxOps() {}
+
+    static void set(double[] r, int t, double re, double im) {
+        r[t] = re;
+        r[t + 2] = im;
+    }
+
+    static void mul(double[] r, int a, int b, int t) {
+        double ar = r[a], ai = r[a + 2], br = r[b], bi = r[b + 2];
+        set(r, t, ar * br - ai * bi, ar * bi + ai * br);
+    }
+
+    static void div(double[] r, int a, int b, int t) {
+        double ar = r[a], ai = r[a + 2], br = r[b], bi = r[b + 2];
+        double d = br * br + bi * bi;
+        set(r, t, (ar * br + ai * bi) / d, (ai * br - ar * bi) / d);
+    }
+
+    static void recip(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        double d = ar * ar + ai * ai;
+        set(r, t, ar / d, -ai / d);
+    }
+
+    static void sqr(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, ar * ar - ai * ai, 2 * ar * ai);
+    }
+
+    static void exp(double[] r, int a, int t) {
+        double e = Math.exp(r[a]), ai = r[a + 2];
+        set(r, t, e * Math.cos(ai), e * Math.sin(ai));
+    }
+
+    static void log(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, Math.log(Math.hypot(ar, ai)), Math.atan2(ai, ar));
+    }
+
+    static void sqrt(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        double rad = Math.hypot(ar, ai);
+        double re = Math.sqrt((rad + ar) * 0.5);
+        double im = Math.sqrt((rad - ar) * 0.5);
+        set(r, t, re, ai < 0 ? -im : im);
+    }
+
+    static void sin(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, Math.sin(ar) * Math.cosh(ai), Math.cos(ar) * Math.sinh(ai));
+    }
+
+    static void cos(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, Math.cos(ar) * Math.cosh(ai), -Math.sin(ar) * Math.sinh(ai));
+    }
+
+    static void tan(double[] r, int a, int t) {
+        double ar = 2 * r[a], ai = 2 * r[a + 2];
+        double d = Math.cos(ar) + Math.cosh(ai);
+        set(r, t, Math.sin(ar) / d, Math.sinh(ai) / d);
+    }
+
+    static void sinh(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, Math.sinh(ar) * Math.cos(ai), Math.cosh(ar) * Math.sin(ai));
+    }
+
+    static void cosh(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+        set(r, t, Math.cosh(ar) * Math.cos(ai), Math.sinh(ar) * Math.sin(ai));
+    }
+
+    static void tanh(double[] r, int a, int t) {
+        double ar = 2 * r[a], ai = 2 * r[a + 2];
+        double d = Math.cosh(ar) + Math.cos(ai);
+        set(r, t, Math.sinh(ar) / d, Math.sin(ai) / d);
+    }
+
+    /**
+     * atan(z) = i/2 (log(1 - iz) - log(1 + iz))
+     */
+    static void atan(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+
+        double ur = 1 + ai, ui = -ar; // 1 - iz
+        double vr = 1 - ai, vi = ar;  // 1 + iz
+
+        double re = -0.5 * (Math.atan2(ui, ur) - Math.atan2(vi, vr));
+        double im = 0.5 * (Math.log(Math.hypot(ur, ui)) - Math.log(Math.hypot(vr, vi)));
+
+        set(r, t, re, im);
+    }
+
+    /**
+     * atanh(z) = 1/2 (log(1 + z) - log(1 - z))
+     */
+    static void atanh(double[] r, int a, int t) {
+        double ar = r[a], ai = r[a + 2];
+
+        double re = 0.5 * (Math.log(Math.hypot(1 + ar, ai)) - Math.log(Math.hypot(1 - ar, -ai)));
+        double im = 0.5 * (Math.atan2(ai, 1 + ar) - Math.atan2(-ai, 1 - ar));
+
+        set(r, t, re, im);
+    }
+
+    /**
+     * z^n using repeated squaring.
+     */
+    static void pow(double[] r, int a, int n, int t) {
+        double ar = r[a], ai = r[a + 2];
+        double re = 1, im = 0;
+
+        for(int e = Math.abs(n); e != 0; e >>>= 1) {
+            if((e & 1) != 0) {
+                double tmp = re * ar - im * ai;
+                im = re * ai + im * ar;
+                re = tmp;
+            }
+
+            double tmp = ar * ar - ai * ai;
+            ai = 2 * ar * ai;
+            ar = tmp;
+        }
+
+        if(n < 0) {
+            double d = re * re + im * im;
+            re = re / d;
+            im = -im / d;
+        }
+
+        set(r, t, re, im);
+    }
+
+    /**
+     * z^w = exp(w log z)
+     */
+    static void pow(double[] r, int a, double br, double bi, int t) {
+        double ar = r[a], ai = r[a + 2];
+
+        if(ar == 0 && ai == 0) {
+            set(r, t, br == 0 && bi == 0 ? 1 : 0, 0);
+            return;
+        }
+
+        double lr = Math.log(Math.hypot(ar, ai));
+        double li = Math.atan2(ai, ar);
+
+        double e = Math.exp(br * lr - bi * li);
+        double phi = br * li + bi * lr;
+
+        set(r, t, e * Math.cos(phi), e * Math.sin(phi));
+    }
+
+    // Quaternions.
+
+    static void qmul(double[] r, int a, int b, int t) {
+        double a0 = r[a], a1 = r[a + 2], a2 = r[a + 4], a3 = r[a + 6];
+        double b0 = r[b], b1 = r[b + 2], b2 = r[b + 4], b3 = r[b + 6];
+
+        r[t] = a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3;
+        r[t + 2] = a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2;
+        r[t + 4] = a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1;
+        r[t + 6] = a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0;
+    }
+
+    /**
+     * a * b^-1
+     */
+    static void qdiv(double[] r, int a, int b, int t) {
+        double a0 = r[a], a1 = r[a + 2], a2 = r[a + 4], a3 = r[a + 6];
+
+        double d = r[b] * r[b] + r[b + 2] * r[b + 2] + r[b + 4] * r[b + 4] + r[b + 6] * r[b + 6];
+        double b0 = r[b] / d, b1 = -r[b + 2] / d, b2 = -r[b + 4] / d, b3 = -r[b + 6] / d;
+
+        r[t] = a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3;
+        r[t + 2] = a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2;
+        r[t + 4] = a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1;
+        r[t + 6] = a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0;
+    }
+}
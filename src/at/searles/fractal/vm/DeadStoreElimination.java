@@ -0,0 +1,103 @@
+package at.searles.fractal.vm;
+
+import java.util.BitSet;
+
+/**
+ * Removes pure instructions whose target is overwritten before it is
+ * read. All registers are live at the end of the program because the
+ * register file can be inspected after an execution (eg for heights)
+ * and keeps its values for the next pixel.
+ */
+class DeadStoreElimination implements OptimizationPass {
+
+    @Override
+    public String name() {
+        return "dead-store-elimination";
+    }
+
+    @Override
+    public boolean apply(IntCodeGraph graph) {
+        int count = graph.size();
+
+        BitSet[] liveIn = new BitSet[count + 1];
+
+        for(int i = 0; i <= count; ++i) {
+            liveIn[i] = new BitSet();
+        }
+
+        liveIn[count].set(Interpreter.COLOR_REGISTER);
+
+        for(int i = 0; i < count; ++i) {
+            IntCodeGraph.Instruction instruction = graph.get(i);
+            int t = instruction.target();
+
+            if(t >= 0) {
+                int from = instruction.register(t);
+                liveIn[count].set(from, from + instruction.opcode.type(t).words);
+            }
+        }
+
+        boolean changed = true;
+
+        while(changed) {
+            changed = false;
+
+            for(int i = count - 1; i >= 0; --i) {
+                BitSet live = liveOut(graph, liveIn, i);
+                IntCodeGraph.Instruction instruction = graph.get(i);
+
+                int t = instruction.target();
+
+                if(t >= 0 && !instruction.isNext()) {
+                    int from = instruction.register(t);
+                    live.clear(from, from + instruction.opcode.type(t).words);
+                }
+
+                instruction.reads(live);
+
+                if(!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        boolean[] removed = new boolean[count];
+        boolean modified = false;
+
+        for(int i = 0; i < count; ++i) {
+            IntCodeGraph.Instruction instruction = graph.get(i);
+
+            if(!instruction.isPure()) {
+                continue;
+            }
+
+            int t = instruction.target();
+            int from = instruction.register(t);
+            int to = from + instruction.opcode.type(t).words;
+
+            BitSet live = liveOut(graph, liveIn, i);
+
+            if(live.get(from, to).isEmpty()) {
+                removed[i] = true;
+                modified = true;
+            }
+        }
+
+        if(modified) {
+            graph.remove(removed);
+        }
+
+        return modified;
+    }
+
+    private static BitSet liveOut(IntCodeGraph graph, BitSet[] liveIn, int index) {
+        BitSet live = new BitSet();
+
+        for(int successor : graph.successors(index)) {
+            live.or(liveIn[successor]);
+        }
+
+        return live;
+    }
+}
@@ -0,0 +1,69 @@
+package at.searles.fractal.vm;
+
+import at.searles.math.Scale;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Scale for deep zooms. The center is stored with arbitrary precision,
+ * the linear part (which is tiny in deep zooms but well inside the
+ * range of double) as doubles.
+ */
+public class DeepScale {
+    public final BigDecimal cx;
+    public final BigDecimal cy;
+
+    public final double xx;
+    public final double xy;
+    public final double yx;
+    public final double yy;
+
+    public DeepScale(BigDecimal cx, BigDecimal cy, double xx, double xy, double yx, double yy) {
+        this.cx = cx;
+        this.cy = cy;
+        this.xx = xx;
+        this.xy = xy;
+        this.yx = yx;
+        this.yy = yy;
+    }
+
+    public static DeepScale fromScale(Scale scale) {
+        return new DeepScale(new BigDecimal(scale.cx), new BigDecimal(scale.cy), scale.xx, scale.xy, scale.yx, scale.yy);
+    }
+
+    /**
+     * @return a scale whose center is at the normalized coordinates nx/ny of this
+     * scale and whose linear part is multiplied by factor.
+     */
+    public DeepScale relative(double nx, double ny, double factor) {
+        MathContext mc = new MathContext(precision());
+
+        BigDecimal x = cx.add(new BigDecimal(xx * nx + yx * ny), mc);
+        BigDecimal y = cy.add(new BigDecimal(xy * nx + yy * ny), mc);
+
+        return new DeepScale(x, y, xx * factor, xy * factor, yx * factor, yy * factor);
+    }
+
+    /**
+     * @return size of one normalized unit.
+     */
+    public double magnitude() {
+        return Math.sqrt(Math.abs(xx * yy - xy * yx));
+    }
+
+    /**
+     * @return the number of decimal digits that are needed to represent
+     * the center of this scale.
+     */
+    public int precision() {
+        return Math.max(20, (int) Math.ceil(-Math.log10(magnitude())) + 20);
+    }
+
+    /**
+     * The double-precision scale. Only useful for shallow zooms.
+     */
+    public Scale toScale() {
+        return new Scale(xx, xy, yx, yy, cx.doubleValue(), cy.doubleValue());
+    }
+}
@@ -0,0 +1,32 @@
+package at.searles.fractal.vm;
+
+/**
+ * How a program is executed.
+ */
+public enum ExecutionMode implements ExecutorFactory {
+    Interpreted {
+        @Override
+        public Executor executor(Program program) {
+            return new Interpreter(program);
+        }
+    },
+    /**
+     * Translates the program into jvm bytecode. Falls back to the
+     * interpreter if the program cannot be compiled.
+     */
+    Compiled {
+        @Override
+        public Executor executor(Program program) {
+            return Jit.executor(program);
+        }
+    },
+    /**
+     * Executes neighbouring pixels of a row at once (see LaneExecutor).
+     */
+    Lanes {
+        @Override
+        public Executor executor(Program program) {
+            return new LaneExecutor(program);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package at.searles.fractal.vm;
+
+/**
+ * Computes colors of single pixels. Executors are not thread safe.
+ */
+public interface Executor {
+    /**
+     * @return the argb-color of pixel x/y.
+     */
+    int execute(int x, int y);
+
+    /**
+     * Computes 'count' pixels starting at x/y in a row and stores
+     * them in colors.
+     */
+    default void execute(int x, int y, int count, int[] colors) {
+        for(int i = 0; i < count; ++i) {
+            colors[i] = execute(x + i, y);
+        }
+    }
+}
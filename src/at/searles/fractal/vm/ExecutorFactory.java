@@ -0,0 +1,8 @@
+package at.searles.fractal.vm;
+
+/**
+ * Creates executors for a program, one per thread.
+ */
+public interface ExecutorFactory {
+    Executor executor(Program program);
+}
@@ -0,0 +1,432 @@
+package at.searles.fractal.vm;
+
+import at.searles.fractal.LdPalette;
+import at.searles.fractal.LdUniform;
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.sys.Jump;
+import at.searles.meelan.ops.sys.JumpRel;
+import at.searles.meelan.ops.sys.MapCoordinates;
+import at.searles.meelan.ops.sys.Mov;
+import at.searles.meelan.ops.sys.Next;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Decoded int-code for optimization passes. Jump targets are stored as
+ * instruction indices so that instructions can be replaced and removed;
+ * index size() is the end of the program. encode() creates the int-code
+ * again.
+ */
+public final class IntCodeGraph {
+
+    public static final class Instruction {
+        Opcode opcode;
+
+        /**
+         * Words of each argument in the int-code. Registers have one word, their offset.
+         */
+        int[][] args;
+
+        /**
+         * Instruction indices of the trailing labels.
+         */
+        int[] labels;
+
+        /**
+         * Instruction index of the target of a jump, -1 for other instructions.
+         */
+        int jump;
+
+        Instruction(Opcode opcode, int[][] args, int[] labels, int jump) {
+            this.opcode = opcode;
+            this.args = args;
+            this.labels = labels;
+            this.jump = jump;
+        }
+
+        public Opcode opcode() {
+            return opcode;
+        }
+
+        boolean isJump() {
+            return jump >= 0;
+        }
+
+        boolean isMov() {
+            return opcode.instruction == Mov.get();
+        }
+
+        boolean isNext() {
+            return opcode.instruction == Next.get();
+        }
+
+        /**
+         * @return true if the instruction does nothing but writing its target,
+         * which is the last argument. Uniforms are not pure because their
+         * values may be patched later.
+         */
+        boolean isPure() {
+            SystemInstruction instruction = opcode.instruction;
+
+            return labels.length == 0 && jump < 0 && opcode.arity() > 0 && opcode.isRegister(opcode.arity() - 1)
+                    && instruction != MapCoordinates.get() && instruction != LdPalette.get()
+                    && instruction != LdUniform.get();
+        }
+
+        /**
+         * @return the index of the written argument or -1.
+         */
+        int target() {
+            if(isNext()) {
+                return 0;
+            }
+
+            if(labels.length > 0 || jump >= 0 || opcode.arity() == 0 || !opcode.isRegister(opcode.arity() - 1)) {
+                return -1;
+            }
+
+            return opcode.arity() - 1;
+        }
+
+        /**
+         * @return true if argument i is a register that is only read.
+         */
+        boolean isReadOnlyRegister(int i) {
+            return opcode.isRegister(i) && i != target();
+        }
+
+        int register(int i) {
+            return args[i][0];
+        }
+
+        /**
+         * Adds the words that are read by this instruction to set.
+         */
+        void reads(BitSet set) {
+            for(int i = 0; i < args.length; ++i) {
+                if(opcode.isRegister(i) && (i != target() || isNext())) {
+                    set.set(register(i), register(i) + opcode.type(i).words);
+                }
+            }
+        }
+
+        /**
+         * @return true if one of the words from to (exclusive) is written.
+         */
+        boolean writes(int from, int to) {
+            int t = target();
+
+            if(t < 0) {
+                return false;
+            }
+
+            int start = register(t);
+            int end = start + opcode.type(t).words;
+
+            return start < to && from < end;
+        }
+    }
+
+    private final List<Instruction> instructions;
+
+    private IntCodeGraph(List<Instruction> instructions) {
+        this.instructions = instructions;
+    }
+
+    /**
+     * @return null if the code contains instructions whose control flow is not
+     * known statically or which are not supported by the java vm.
+     */
+    public static IntCodeGraph decode(int[] code) {
+        OpcodeTable table = OpcodeTable.get();
+
+        List<Instruction> instructions = new ArrayList<>();
+        List<int[]> rawLabels = new ArrayList<>();
+
+        int[] pcToIndex = new int[code.length + 1];
+        Arrays.fill(pcToIndex, -1);
+
+        try {
+            for(int pc = 0; pc < code.length; ) {
+                Opcode opcode = table.get(code[pc]);
+
+                if(!opcode.isSupported() || opcode.instruction == JumpRel.get()) {
+                    return null;
+                }
+
+                Semantics.Entry entry = Semantics.entry(opcode);
+
+                pcToIndex[pc] = instructions.size();
+
+                int w = pc + 1;
+                int[][] args = new int[opcode.arity()][];
+
+                for(int i = 0; i < opcode.arity(); ++i) {
+                    int words = opcode.isRegister(i) ? 1 : opcode.type(i).words;
+                    args[i] = Arrays.copyOfRange(code, w, w + words);
+                    w += words;
+                }
+
+                int[] labels = Arrays.copyOfRange(code, w, w + entry.labels);
+                w += entry.labels;
+
+                if(w > code.length) {
+                    return null;
+                }
+
+                int jump = -1;
+
+                if(opcode.instruction == Jump.get()) {
+                    if(opcode.isRegister(0) || args[0][0] < 0) {
+                        return null;
+                    }
+
+                    // resolved below
+                    jump = args[0][0];
+                }
+
+                instructions.add(new Instruction(opcode, args, labels, jump));
+                rawLabels.add(labels);
+
+                pc = w;
+            }
+        } catch(UnsupportedInstructionException e) {
+            return null;
+        }
+
+        pcToIndex[code.length] = instructions.size();
+
+        for(Instruction instruction : instructions) {
+            for(int k = 0; k < instruction.labels.length; ++k) {
+                int pc = instruction.labels[k];
+
+                if(pc < 0 || pc > code.length || pcToIndex[pc] < 0) {
+                    return null;
+                }
+
+                instruction.labels[k] = pcToIndex[pc];
+            }
+
+            if(instruction.jump >= 0) {
+                int pc = instruction.jump;
+
+                if(pc > code.length || pcToIndex[pc] < 0) {
+                    return null;
+                }
+
+                instruction.jump = pcToIndex[pc];
+            }
+        }
+
+        return new IntCodeGraph(instructions);
+    }
+
+    public int[] encode() {
+        int[] offsets = new int[instructions.size() + 1];
+        int pc = 0;
+
+        for(int i = 0; i < instructions.size(); ++i) {
+            offsets[i] = pc;
+            pc += words(instructions.get(i));
+        }
+
+        offsets[instructions.size()] = pc;
+
+        int[] code = new int[pc];
+        pc = 0;
+
+        for(Instruction instruction : instructions) {
+            code[pc++] = instruction.opcode.opcode;
+
+            for(int i = 0; i < instruction.args.length; ++i) {
+                if(instruction.isJump() && i == 0) {
+                    code[pc++] = offsets[instruction.jump];
+                } else {
+                    System.arraycopy(instruction.args[i], 0, code, pc, instruction.args[i].length);
+                    pc += instruction.args[i].length;
+                }
+            }
+
+            for(int label : instruction.labels) {
+                code[pc++] = offsets[label];
+            }
+        }
+
+        return code;
+    }
+
+    private static int words(Instruction instruction) {
+        int words = 1 + instruction.labels.length;
+
+        for(int[] arg : instruction.args) {
+            words += arg.length;
+        }
+
+        return words;
+    }
+
+    /**
+     * @return the size of the encoded int-code.
+     */
+    public int codeSize() {
+        int size = 0;
+
+        for(Instruction instruction : instructions) {
+            size += words(instruction);
+        }
+
+        return size;
+    }
+
+    public int size() {
+        return instructions.size();
+    }
+
+    public Instruction get(int index) {
+        return instructions.get(index);
+    }
+
+    /**
+     * @return the instruction indices that may follow instruction index.
+     */
+    int[] successors(int index) {
+        Instruction instruction = instructions.get(index);
+
+        if(instruction.isJump()) {
+            return new int[]{instruction.jump};
+        }
+
+        if(instruction.labels.length > 0) {
+            return instruction.labels;
+        }
+
+        return new int[]{index + 1};
+    }
+
+    void replace(int index, Instruction instruction) {
+        instructions.set(index, instruction);
+    }
+
+    /**
+     * @return for each instruction whether it is the target of a jump or label.
+     */
+    boolean[] targets() {
+        boolean[] targets = new boolean[instructions.size() + 1];
+
+        for(Instruction instruction : instructions) {
+            for(int label : instruction.labels) {
+                targets[label] = true;
+            }
+
+            if(instruction.isJump()) {
+                targets[instruction.jump] = true;
+            }
+        }
+
+        return targets;
+    }
+
+    /**
+     * Removes instructions. References to removed instructions are
+     * redirected to the next remaining one.
+     */
+    void remove(boolean[] removed) {
+        int count = instructions.size();
+        int[] newIndex = new int[count + 1];
+
+        int survivors = 0;
+
+        for(int i = 0; i < count; ++i) {
+            if(!removed[i]) {
+                survivors++;
+            }
+        }
+
+        newIndex[count] = survivors;
+
+        for(int i = count - 1; i >= 0; --i) {
+            newIndex[i] = removed[i] ? newIndex[i + 1] : --survivors;
+        }
+
+        List<Instruction> remaining = new ArrayList<>();
+
+        for(int i = 0; i < count; ++i) {
+            if(removed[i]) {
+                continue;
+            }
+
+            Instruction instruction = instructions.get(i);
+
+            for(int k = 0; k < instruction.labels.length; ++k) {
+                instruction.labels[k] = newIndex[instruction.labels[k]];
+            }
+
+            if(instruction.isJump()) {
+                instruction.jump = newIndex[instruction.jump];
+            }
+
+            remaining.add(instruction);
+        }
+
+        instructions.clear();
+        instructions.addAll(remaining);
+    }
+
+    /**
+     * @return the opcode of the same instruction with the same types and
+     * the given register-flags or null if there is none.
+     */
+    static Opcode find(SystemInstruction instruction, String typeKey, boolean[] registers) {
+        OpcodeTable table = OpcodeTable.get();
+
+        for(int i = 0; i < table.size(); ++i) {
+            Opcode opcode = table.get(i);
+
+            if(opcode.instruction != instruction || !opcode.isSupported() || !opcode.typeKey().equals(typeKey)) {
+                continue;
+            }
+
+            boolean matches = true;
+
+            for(int k = 0; k < registers.length; ++k) {
+                matches &= opcode.isRegister(k) == registers[k];
+            }
+
+            if(matches) {
+                return opcode;
+            }
+        }
+
+        return null;
+    }
+
+    static boolean[] registerFlags(Opcode opcode) {
+        boolean[] registers = new boolean[opcode.arity()];
+
+        for(int i = 0; i < registers.length; ++i) {
+            registers[i] = opcode.isRegister(i);
+        }
+
+        return registers;
+    }
+
+    /**
+     * @return a jump to target or null if the instruction set has no suitable jump.
+     */
+    static Instruction jump(int target) {
+        Opcode opcode = find(Jump.get(), "i", new boolean[]{false});
+        return opcode != null ? new Instruction(opcode, new int[][]{{0}}, new int[0], target) : null;
+    }
+
+    /**
+     * @return a mov of a constant into register t or null if there is no suitable mov.
+     */
+    static Instruction movConstant(VmType type, int[] constant, int t) {
+        String key = "" + type.key + type.key;
+        Opcode opcode = find(Mov.get(), key, new boolean[]{false, true});
+        return opcode != null ? new Instruction(opcode, new int[][]{constant, {t}}, new int[0], -1) : null;
+    }
+}
@@ -0,0 +1,231 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.special.Mandelbrot;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Lake pixels run until the loop counter reaches maxdepth. In double
+ * precision, their orbits usually end in an exact cycle. For each loop
+ * with a 'next', the values that are carried from one iteration to the
+ * next (registers that are written in the loop and live at the 'next')
+ * are compared using Brent's algorithm. Once they repeat, the loop
+ * counter is advanced by a multiple of the period. Since the state of the
+ * loop is the same afterwards, so is the result. Loops in which another
+ * op than the 'next' accesses the counter (eg conditions like 'i < k' or
+ * colors that use i) or writes the limit are not modified.
+ *
+ * Detection starts right away if the loop iterates 'mandelbrot' with a p
+ * inside the main cardioid or the period-2 bulb; otherwise after WARMUP
+ * iterations so that escaping pixels do not pay for it.
+ *
+ * The state of the detection is stored in additional slots of the
+ * register file.
+ */
+final class InteriorDetection {
+
+    private static final int WARMUP = 32;
+
+    // scratch slots, followed by the saved state.
+    private static final int LAST_COUNTER = 0;
+    private static final int POWER = 1;
+    private static final int LAMBDA = 2;
+    private static final int START = 3;
+    private static final int SCRATCH_SIZE = 4;
+
+    private InteriorDetection() {}
+
+    /**
+     * Wraps the 'next' op of all suitable loops.
+     *
+     * @return the image extended by the scratch slots.
+     */
+    static double[] apply(Op[] ops, Opcode[] opcodes, int[][] slots, int[][] successors, int[][] labelTargets, double[] image, int registerCount) {
+        for(int index = 0; index < ops.length; ++index) {
+            if(!Loops.isNext(opcodes[index])) {
+                continue;
+            }
+
+            int[] state = state(index, opcodes, slots, successors, labelTargets, registerCount);
+
+            if(state == null) {
+                continue;
+            }
+
+            int scratch = image.length;
+            image = Arrays.copyOf(image, scratch + SCRATCH_SIZE + state.length);
+            image[scratch + LAST_COUNTER] = Double.NaN;
+
+            int counter = slots[index][0], limit = slots[index][1];
+            int p = parameter(index, opcodes, slots, successors, labelTargets);
+
+            ops[index] = detect(ops[index], counter, limit, p, state, scratch);
+        }
+
+        return image;
+    }
+
+    /**
+     * @return the words of the state of the loop around the 'next' op
+     * 'index' or null if its iterations cannot be skipped.
+     */
+    private static int[] state(int index, Opcode[] opcodes, int[][] slots, int[][] successors, int[][] labelTargets, int registerCount) {
+        boolean[] body = Loops.body(index, successors);
+
+        if(body == null || !body[index]) {
+            return null;
+        }
+
+        int counter = slots[index][0], limit = slots[index][1];
+
+        if(counter == limit) {
+            return null;
+        }
+
+        for(int i = 0; i < body.length; ++i) {
+            if(!body[i] || i == index) {
+                continue;
+            }
+
+            if(Loops.reads(opcodes[i], slots[i], labelTargets[i], counter, counter + 1)
+                    || Loops.writes(opcodes[i], slots[i], labelTargets[i], counter, counter + 1)
+                    || Loops.writes(opcodes[i], slots[i], labelTargets[i], limit, limit + 1)) {
+                return null;
+            }
+        }
+
+        BitSet state = Loops.liveIn(index, opcodes, slots, successors, labelTargets, registerCount);
+        state.and(Loops.written(body, opcodes, slots, labelTargets));
+        state.clear(counter);
+
+        return state.stream().toArray();
+    }
+
+    /**
+     * @return the slot of p if the loop around 'index' iterates a single
+     * 'mandelbrot(z, p)' with a p that does not change in it, otherwise -1.
+     */
+    private static int parameter(int index, Opcode[] opcodes, int[][] slots, int[][] successors, int[][] labelTargets) {
+        boolean[] body = Loops.body(index, successors);
+        int p = -1;
+
+        for(int i = 0; i < body.length; ++i) {
+            if(body[i] && opcodes[i].instruction == Mandelbrot.get() && opcodes[i].typeKey().equals("ccc")) {
+                if(p >= 0) {
+                    return -1;
+                }
+
+                p = slots[i][1];
+            }
+        }
+
+        if(p < 0) {
+            return -1;
+        }
+
+        for(int i = 0; i < body.length; ++i) {
+            if(body[i] && Loops.writes(opcodes[i], slots[i], labelTargets[i], p, p + VmType.Cplx.words)) {
+                return -1;
+            }
+        }
+
+        return p;
+    }
+
+    private static Op detect(Op op, int counter, int limit, int p, int[] state, int s) {
+        int saved = s + SCRATCH_SIZE;
+
+        return r -> {
+            double i = r[counter];
+
+            if(i != r[s + LAST_COUNTER] + 1) {
+                // new loop
+                boolean interior = p >= 0 && isInCardioidOrBulb(r[p], r[p + 2]);
+
+                r[s + START] = interior ? i : i + WARMUP;
+                r[s + POWER] = 0;
+            } else if(i >= r[s + START]) {
+                if(r[s + POWER] == 0) {
+                    save(r, state, saved);
+                    r[s + POWER] = 1;
+                    r[s + LAMBDA] = 0;
+                } else {
+                    double lambda = r[s + LAMBDA] + 1;
+
+                    if(isSaved(r, state, saved)) {
+                        // the whole state is periodic now.
+                        double skip = Math.floor((r[limit] - 1 - i) / lambda) * lambda;
+
+                        if(skip > 0) {
+                            i += skip;
+                            r[counter] = i;
+                        }
+
+                        r[s + START] = Double.POSITIVE_INFINITY;
+                    } else if(lambda == r[s + POWER]) {
+                        save(r, state, saved);
+                        r[s + POWER] = 2 * lambda;
+                        lambda = 0;
+                    }
+
+                    r[s + LAMBDA] = lambda;
+                }
+            }
+
+            r[s + LAST_COUNTER] = i;
+
+            return op.execute(r);
+        };
+    }
+
+    private static void save(double[] r, int[] state, int saved) {
+        for(int k = 0; k < state.length; ++k) {
+            r[saved + k] = r[state[k]];
+        }
+    }
+
+    /**
+     * Compares bits so that eg -0.0 and 0.0 are different.
+     */
+    private static boolean isSaved(double[] r, int[] state, int saved) {
+        for(int k = 0; k < state.length; ++k) {
+            if(Double.doubleToLongBits(r[saved + k]) != Double.doubleToLongBits(r[state[k]])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of loops for which apply added scratch slots.
+     */
+    static int count(Op[] ops, Op[] detecting) {
+        int count = 0;
+
+        for(int i = 0; i < ops.length; ++i) {
+            if(ops[i] != detecting[i]) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Closed form tests for the main cardioid and the period-2 bulb.
+     */
+    static boolean isInCardioidOrBulb(double x, double y) {
+        double y2 = y * y;
+        double xq = x - 0.25;
+        double q = xq * xq + y2;
+
+        if(q * (q + xq) <= 0.25 * y2) {
+            return true;
+        }
+
+        double x1 = x + 1;
+        return x1 * x1 + y2 <= 0.0625;
+    }
+}
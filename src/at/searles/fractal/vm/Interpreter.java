@@ -0,0 +1,54 @@
+package at.searles.fractal.vm;
+
+/**
+ * Executes a program for single pixels. By convention, fractal sources
+ * start with 'var x int, y int, color int;', hence the pixel coordinates
+ * are stored in the first two registers and the resulting argb-color is
+ * read from the third one.
+ *
+ * An interpreter owns its register file and is not thread safe; use
+ * one instance per thread.
+ */
+public class Interpreter implements Executor {
+
+    public static final int X_REGISTER = 0;
+    public static final int Y_REGISTER = 1;
+    public static final int COLOR_REGISTER = 2;
+
+    private final Program program;
+    private final Op[] ops;
+    private final double[] registers;
+
+    public Interpreter(Program program) {
+        this.program = program;
+        this.ops = program.fused;
+        this.registers = program.image.clone();
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    @Override
+    public int execute(int x, int y) {
+        double[] r = registers;
+        Op[] ops = this.ops;
+
+        r[X_REGISTER] = x;
+        r[Y_REGISTER] = y;
+
+        for(int pc = 0; pc < ops.length; ) {
+            pc = ops[pc].execute(r);
+        }
+
+        return (int) r[COLOR_REGISTER];
+    }
+
+    /**
+     * Register file after the last execution. Useful to
+     * inspect further values like heights for 3D.
+     */
+    public double[] registers() {
+        return registers;
+    }
+}
@@ -0,0 +1,145 @@
+package at.searles.fractal.vm;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles programs into jvm classes. Generated classes only depend on
+ * the int-code, hence they are cached by the int-code and shared among
+ * programs with different palettes or scales.
+ */
+public class Jit {
+
+    private static final int CACHE_SIZE = 32;
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private static final Map<CodeKey, Constructor<? extends JitCode>> cache =
+            new LinkedHashMap<CodeKey, Constructor<? extends JitCode>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CodeKey, Constructor<? extends JitCode>> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private Jit() {}
+
+    /**
+     * @return an executor running compiled code, or an interpreter if the
+     * program cannot be compiled.
+     */
+    public static Executor executor(Program program) {
+        try {
+            return new JitExecutor(program, compile(program));
+        } catch (UnsupportedInstructionException e) {
+            return new Interpreter(program);
+        }
+    }
+
+    /**
+     * @return true if executor runs compiled code.
+     */
+    public static boolean isCompiled(Executor executor) {
+        return executor instanceof JitExecutor;
+    }
+
+    /**
+     * @throws UnsupportedInstructionException if the program cannot be compiled.
+     */
+    public static JitCode compile(Program program) {
+        Constructor<? extends JitCode> constructor = constructor(program);
+
+        try {
+            return constructor.newInstance((Object) program.ops);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Constructor<? extends JitCode> constructor(Program program) {
+        // generated code reads constants from the register file, hence
+        // programs that only differ in values of uniforms share a class.
+        CodeKey key = new CodeKey(Uniforms.withoutValues(program.code));
+
+        synchronized (cache) {
+            Constructor<? extends JitCode> constructor = cache.get(key);
+
+            if(constructor != null) {
+                return constructor;
+            }
+        }
+
+        // generate outside of lock. In the worst case a class is generated twice.
+        String name = "at/searles/fractal/vm/JitCode$" + classCounter.incrementAndGet();
+        byte[] bytes = new CodeGenerator(name).generate(program);
+
+        Constructor<? extends JitCode> constructor;
+
+        try {
+            // one loader per class so that classes can be unloaded once they drop out of the cache.
+            Class<? extends JitCode> cl = new Loader().define(name.replace('/', '.'), bytes).asSubclass(JitCode.class);
+            constructor = cl.getConstructor(Op[].class);
+        } catch (LinkageError | ReflectiveOperationException e) {
+            throw new UnsupportedInstructionException("cannot load generated code: " + e.getMessage());
+        }
+
+        synchronized (cache) {
+            cache.put(key, constructor);
+        }
+
+        return constructor;
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class CodeKey {
+        final int[] code;
+        final int hash;
+
+        CodeKey(int[] code) {
+            this.code = code;
+            this.hash = Arrays.hashCode(code);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CodeKey && hash == ((CodeKey) obj).hash && Arrays.equals(code, ((CodeKey) obj).code);
+        }
+    }
+
+    private static class JitExecutor implements Executor {
+        final JitCode code;
+        final double[] registers;
+
+        JitExecutor(Program program, JitCode code) {
+            this.code = code;
+            this.registers = program.image.clone();
+        }
+
+        @Override
+        public int execute(int x, int y) {
+            registers[Interpreter.X_REGISTER] = x;
+            registers[Interpreter.Y_REGISTER] = y;
+
+            code.run(registers);
+
+            return (int) registers[Interpreter.COLOR_REGISTER];
+        }
+    }
+}
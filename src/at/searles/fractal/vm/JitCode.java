@@ -0,0 +1,9 @@
+package at.searles.fractal.vm;
+
+/**
+ * Implemented by classes generated by the Jit. This interface must be
+ * public because generated classes are defined in their own class loader.
+ */
+public interface JitCode {
+    void run(double[] r);
+}
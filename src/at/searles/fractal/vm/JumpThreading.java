@@ -0,0 +1,114 @@
+package at.searles.fractal.vm;
+
+/**
+ * Redirects jumps and labels that point to a jump to its final target,
+ * replaces conditions whose labels are equal by a jump, removes jumps to
+ * the next instruction and instructions that cannot be reached.
+ */
+class JumpThreading implements OptimizationPass {
+
+    @Override
+    public String name() {
+        return "jump-threading";
+    }
+
+    @Override
+    public boolean apply(IntCodeGraph graph) {
+        boolean modified = false;
+        int count = graph.size();
+
+        for(int i = 0; i < count; ++i) {
+            IntCodeGraph.Instruction instruction = graph.get(i);
+
+            for(int k = 0; k < instruction.labels.length; ++k) {
+                int target = follow(graph, instruction.labels[k]);
+
+                if(target != instruction.labels[k]) {
+                    instruction.labels[k] = target;
+                    modified = true;
+                }
+            }
+
+            if(instruction.isJump()) {
+                int target = follow(graph, instruction.jump);
+
+                if(target != instruction.jump) {
+                    instruction.jump = target;
+                    modified = true;
+                }
+            }
+
+            if(instruction.labels.length > 0 && !instruction.isNext() && allEqual(instruction.labels)) {
+                IntCodeGraph.Instruction jump = IntCodeGraph.jump(instruction.labels[0]);
+
+                if(jump != null) {
+                    graph.replace(i, jump);
+                    modified = true;
+                }
+            }
+        }
+
+        boolean[] removed = new boolean[count];
+        boolean[] reachable = new boolean[count + 1];
+
+        mark(graph, 0, reachable);
+
+        boolean remove = false;
+
+        for(int i = 0; i < count; ++i) {
+            IntCodeGraph.Instruction instruction = graph.get(i);
+
+            // jumps to the next instruction can fall through instead.
+            removed[i] = !reachable[i] || instruction.isJump() && instruction.jump == i + 1;
+            remove |= removed[i];
+        }
+
+        if(remove) {
+            graph.remove(removed);
+        }
+
+        return modified || remove;
+    }
+
+    private static int follow(IntCodeGraph graph, int target) {
+        // the limit avoids endless loops of jumps.
+        for(int steps = 0; steps < graph.size() && target < graph.size() && graph.get(target).isJump(); ++steps) {
+            target = graph.get(target).jump;
+        }
+
+        return target;
+    }
+
+    private static boolean allEqual(int[] labels) {
+        for(int label : labels) {
+            if(label != labels[0]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void mark(IntCodeGraph graph, int start, boolean[] reachable) {
+        int[] stack = new int[graph.size() + 1];
+        int top = 0;
+
+        stack[top++] = start;
+        reachable[start] = true;
+
+        while(top > 0) {
+            int i = stack[--top];
+
+            if(i >= graph.size()) {
+                continue;
+            }
+
+            for(int successor : graph.successors(i)) {
+                if(!reachable[successor]) {
+                    reachable[successor] = true;
+                    stack[top++] = successor;
+                }
+            }
+        }
+    }
+}
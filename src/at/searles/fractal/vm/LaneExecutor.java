@@ -0,0 +1,469 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.arithmetics.Add;
+import at.searles.meelan.ops.arithmetics.Mul;
+import at.searles.meelan.ops.arithmetics.Sub;
+import at.searles.meelan.ops.analysis.Sqr;
+import at.searles.meelan.ops.comparison.Less;
+import at.searles.meelan.ops.complex.Rad2;
+import at.searles.meelan.ops.cons.Cons;
+import at.searles.meelan.ops.special.Mandelbrot;
+import at.searles.meelan.ops.special.RadLess;
+import at.searles.meelan.ops.sys.Mov;
+import at.searles.meelan.ops.sys.Next;
+
+/**
+ * Executes a program for a number of neighbouring pixels (lanes) at once.
+ * The register file is stored lane-major: slot s of lane l is at
+ * r[s * lanes + l]. Frequent instructions have kernels that loop over
+ * all lanes so that HotSpot can vectorize them; all other instructions
+ * are executed lane by lane on a scalar register file.
+ *
+ * Each lane has its own program counter. Lanes that have a different pc
+ * (eg because they already escaped) are masked out: the op with the
+ * lowest pc is executed for all lanes at this pc. Since loops jump
+ * backwards, lanes reconverge once all of them left the loop.
+ */
+public class LaneExecutor implements Executor {
+
+    public static final int DEFAULT_LANES = 8;
+
+    interface LaneOp {
+        /**
+         * Executes the op for lanes[0] to lanes[count - 1] and stores the
+         * index of the next op of each of these lanes in pcs. If count is
+         * the number of lanes, lanes is 0, 1, 2...
+         */
+        void execute(double[] r, int[] lanes, int count, int[] pcs);
+    }
+
+    private final Program program;
+    private final int laneCount;
+
+    private final LaneOp[] ops;
+    private final double[] registers;
+    private final double[] scratch;
+
+    private final int[] pcs;
+    private final int[] allLanes;
+    private final int[] selectedLanes;
+
+    public LaneExecutor(Program program) {
+        this(program, DEFAULT_LANES);
+    }
+
+    public LaneExecutor(Program program, int laneCount) {
+        this.program = program;
+        this.laneCount = laneCount;
+
+        this.registers = new double[program.image.length * laneCount];
+
+        for(int s = 0; s < program.image.length; ++s) {
+            for(int l = 0; l < laneCount; ++l) {
+                registers[s * laneCount + l] = program.image[s];
+            }
+        }
+
+        this.scratch = program.image.clone();
+
+        this.pcs = new int[laneCount];
+        this.allLanes = new int[laneCount];
+        this.selectedLanes = new int[laneCount];
+
+        for(int l = 0; l < laneCount; ++l) {
+            allLanes[l] = l;
+        }
+
+        this.ops = new LaneOp[program.size()];
+
+        for(int i = 0; i < ops.length; ++i) {
+            LaneOp op = kernel(i);
+            ops[i] = op != null ? op : fallback(i);
+        }
+    }
+
+    @Override
+    public int execute(int x, int y) {
+        run(x, y, 1);
+        return (int) registers[Interpreter.COLOR_REGISTER * laneCount];
+    }
+
+    @Override
+    public void execute(int x, int y, int count, int[] colors) {
+        for(int offset = 0; offset < count; offset += laneCount) {
+            int n = Math.min(laneCount, count - offset);
+
+            run(x + offset, y, n);
+
+            for(int l = 0; l < n; ++l) {
+                colors[offset + l] = (int) registers[Interpreter.COLOR_REGISTER * laneCount + l];
+            }
+        }
+    }
+
+    private void run(int x, int y, int count) {
+        double[] r = registers;
+        int end = ops.length;
+
+        for(int l = 0; l < laneCount; ++l) {
+            r[Interpreter.X_REGISTER * laneCount + l] = x + l;
+            r[Interpreter.Y_REGISTER * laneCount + l] = y;
+            pcs[l] = l < count ? 0 : end;
+        }
+
+        boolean converged = count == laneCount;
+        int pc = 0;
+
+        while(true) {
+            if(converged) {
+                if(pc >= end) {
+                    return;
+                }
+
+                ops[pc].execute(r, allLanes, laneCount, pcs);
+
+                pc = pcs[0];
+
+                for(int l = 1; l < laneCount; ++l) {
+                    if(pcs[l] != pc) {
+                        converged = false;
+                        break;
+                    }
+                }
+
+                continue;
+            }
+
+            // Diverged: Execute the lowest pc for all lanes at this pc.
+            int min = end;
+
+            for(int l = 0; l < laneCount; ++l) {
+                min = Math.min(min, pcs[l]);
+            }
+
+            if(min >= end) {
+                return;
+            }
+
+            int selected = 0;
+
+            for(int l = 0; l < laneCount; ++l) {
+                if(pcs[l] == min) {
+                    selectedLanes[selected++] = l;
+                }
+            }
+
+            if(selected == laneCount) {
+                converged = true;
+                pc = min;
+                continue;
+            }
+
+            ops[min].execute(r, selectedLanes, selected, pcs);
+        }
+    }
+
+    // === Fallback ===
+
+    /**
+     * Copies the registers of the arguments of one lane into the scalar
+     * register file, executes the scalar op and copies them back.
+     */
+    private LaneOp fallback(int index) {
+        Op op = program.bound[index];
+        Opcode opcode = program.opcodes[index];
+        int[] slots = program.slots[index];
+
+        int size = 0;
+
+        for(int i = 0; i < opcode.arity(); ++i) {
+            if(opcode.isRegister(i)) {
+                size += opcode.type(i).components();
+            }
+        }
+
+        int[] words = new int[size];
+        int k = 0;
+
+        for(int i = 0; i < opcode.arity(); ++i) {
+            if(opcode.isRegister(i)) {
+                for(int c = 0; c < opcode.type(i).components(); ++c) {
+                    words[k++] = slots[i] + c * VmType.STRIDE;
+                }
+            }
+        }
+
+        int n = laneCount;
+        double[] scalar = scratch;
+
+        return (r, lanes, count, pcs) -> {
+            for(int i = 0; i < count; ++i) {
+                int l = lanes[i];
+
+                for(int w : words) {
+                    scalar[w] = r[w * n + l];
+                }
+
+                pcs[l] = op.execute(scalar);
+
+                for(int w : words) {
+                    r[w * n + l] = scalar[w];
+                }
+            }
+        };
+    }
+
+    // === Kernels ===
+
+    private static void next(int[] lanes, int count, int[] pcs, int next) {
+        for(int i = 0; i < count; ++i) {
+            pcs[lanes[i]] = next;
+        }
+    }
+
+    /**
+     * @return null if there is no lane kernel for this op.
+     */
+    private LaneOp kernel(int index) {
+        Opcode opcode = program.opcodes[index];
+        SystemInstruction instruction = opcode.instruction;
+        String key = opcode.typeKey();
+
+        int n = laneCount;
+        int[] s = program.slots[index];
+        int[] labels = program.labelTargets[index];
+        int next = index + 1;
+
+        if(instruction == Mov.get()) {
+            return mov(s[0] * n, s[1] * n, opcode.type(0).components(), next);
+        }
+
+        if((instruction == Add.get() || instruction == Sub.get())
+                && (key.equals("rrr") || key.equals("ccc") || key.equals("qqq"))) {
+            return addSub(s[0] * n, s[1] * n, s[2] * n, opcode.type(0).components(),
+                    instruction == Add.get() ? 1. : -1., next);
+        }
+
+        if(instruction == Mul.get() && key.equals("rrr")) {
+            return mulReal(s[0] * n, s[1] * n, s[2] * n, next);
+        }
+
+        if(instruction == Mul.get() && key.equals("ccc")) {
+            return mulCplx(s[0] * n, s[1] * n, s[2] * n, next);
+        }
+
+        if(instruction == Sqr.get() && key.equals("rr")) {
+            return mulReal(s[0] * n, s[0] * n, s[1] * n, next);
+        }
+
+        if(instruction == Sqr.get() && key.equals("cc")) {
+            return mulCplx(s[0] * n, s[0] * n, s[1] * n, next);
+        }
+
+        if(instruction == Mandelbrot.get() && key.equals("ccc")) {
+            return mandelbrot(s[0] * n, s[1] * n, s[2] * n, next);
+        }
+
+        if(instruction == Rad2.get() && key.equals("cr")) {
+            return rad2(s[0] * n, s[1] * n, next);
+        }
+
+        if(instruction == Cons.get() && key.equals("rrc")) {
+            return cons(s[0] * n, s[1] * n, s[2] * n, next);
+        }
+
+        if(instruction == Less.get()) {
+            return less(s[0] * n, s[1] * n, labels[0], labels[1]);
+        }
+
+        if(instruction == RadLess.get() && key.equals("cr")) {
+            return radLess(s[0] * n, s[1] * n, labels[0], labels[1]);
+        }
+
+        if(instruction == Next.get() && key.equals("ii")) {
+            return next(s[0] * n, s[1] * n, labels[0], labels[1]);
+        }
+
+        return null;
+    }
+
+    private LaneOp mov(int a, int t, int components, int next) {
+        int n = laneCount;
+
+        return (r, lanes, count, pcs) -> {
+            for(int c = 0; c < components * VmType.STRIDE * n; c += VmType.STRIDE * n) {
+                if(count == n) {
+                    for(int l = 0; l < n; ++l) {
+                        r[t + c + l] = r[a + c + l];
+                    }
+                } else {
+                    for(int i = 0; i < count; ++i) {
+                        int l = lanes[i];
+                        r[t + c + l] = r[a + c + l];
+                    }
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp addSub(int a, int b, int t, int components, double sign, int next) {
+        int n = laneCount;
+
+        return (r, lanes, count, pcs) -> {
+            for(int c = 0; c < components * VmType.STRIDE * n; c += VmType.STRIDE * n) {
+                if(count == n) {
+                    for(int l = 0; l < n; ++l) {
+                        r[t + c + l] = r[a + c + l] + sign * r[b + c + l];
+                    }
+                } else {
+                    for(int i = 0; i < count; ++i) {
+                        int l = lanes[i];
+                        r[t + c + l] = r[a + c + l] + sign * r[b + c + l];
+                    }
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp mulReal(int a, int b, int t, int next) {
+        int n = laneCount;
+
+        return (r, lanes, count, pcs) -> {
+            if(count == n) {
+                for(int l = 0; l < n; ++l) {
+                    r[t + l] = r[a + l] * r[b + l];
+                }
+            } else {
+                for(int i = 0; i < count; ++i) {
+                    int l = lanes[i];
+                    r[t + l] = r[a + l] * r[b + l];
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp mulCplx(int a, int b, int t, int next) {
+        int n = laneCount;
+        int im = VmType.STRIDE * n;
+
+        return (r, lanes, count, pcs) -> {
+            if(count == n) {
+                for(int l = 0; l < n; ++l) {
+                    double ar = r[a + l], ai = r[a + im + l], br = r[b + l], bi = r[b + im + l];
+                    r[t + l] = ar * br - ai * bi;
+                    r[t + im + l] = ar * bi + ai * br;
+                }
+            } else {
+                for(int i = 0; i < count; ++i) {
+                    int l = lanes[i];
+                    double ar = r[a + l], ai = r[a + im + l], br = r[b + l], bi = r[b + im + l];
+                    r[t + l] = ar * br - ai * bi;
+                    r[t + im + l] = ar * bi + ai * br;
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp mandelbrot(int z, int c, int t, int next) {
+        int n = laneCount;
+        int im = VmType.STRIDE * n;
+
+        return (r, lanes, count, pcs) -> {
+            if(count == n) {
+                for(int l = 0; l < n; ++l) {
+                    double re = r[z + l], ii = r[z + im + l];
+                    r[t + l] = re * re - ii * ii + r[c + l];
+                    r[t + im + l] = 2 * re * ii + r[c + im + l];
+                }
+            } else {
+                for(int i = 0; i < count; ++i) {
+                    int l = lanes[i];
+                    double re = r[z + l], ii = r[z + im + l];
+                    r[t + l] = re * re - ii * ii + r[c + l];
+                    r[t + im + l] = 2 * re * ii + r[c + im + l];
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp rad2(int a, int t, int next) {
+        int n = laneCount;
+        int im = VmType.STRIDE * n;
+
+        return (r, lanes, count, pcs) -> {
+            if(count == n) {
+                for(int l = 0; l < n; ++l) {
+                    double re = r[a + l], ii = r[a + im + l];
+                    r[t + l] = re * re + ii * ii;
+                }
+            } else {
+                for(int i = 0; i < count; ++i) {
+                    int l = lanes[i];
+                    double re = r[a + l], ii = r[a + im + l];
+                    r[t + l] = re * re + ii * ii;
+                }
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp cons(int a, int b, int t, int next) {
+        int n = laneCount;
+        int im = VmType.STRIDE * n;
+
+        return (r, lanes, count, pcs) -> {
+            for(int i = 0; i < count; ++i) {
+                int l = lanes[i];
+                double re = r[a + l];
+                r[t + im + l] = r[b + l];
+                r[t + l] = re;
+            }
+
+            next(lanes, count, pcs, next);
+        };
+    }
+
+    private LaneOp less(int a, int b, int yes, int no) {
+        return (r, lanes, count, pcs) -> {
+            for(int i = 0; i < count; ++i) {
+                int l = lanes[i];
+                pcs[l] = r[a + l] < r[b + l] ? yes : no;
+            }
+        };
+    }
+
+    private LaneOp radLess(int a, int b, int yes, int no) {
+        int im = VmType.STRIDE * laneCount;
+
+        return (r, lanes, count, pcs) -> {
+            for(int i = 0; i < count; ++i) {
+                int l = lanes[i];
+                double re = r[a + l], ii = r[a + im + l], limit = r[b + l];
+                pcs[l] = re * re + ii * ii < limit * limit ? yes : no;
+            }
+        };
+    }
+
+    private LaneOp next(int counter, int limit, int yes, int no) {
+        return (r, lanes, count, pcs) -> {
+            for(int i = 0; i < count; ++i) {
+                int l = lanes[i];
+                double v = r[counter + l] + 1;
+                r[counter + l] = v;
+                pcs[l] = v < r[limit + l] ? yes : no;
+            }
+        };
+    }
+}
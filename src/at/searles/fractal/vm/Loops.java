@@ -0,0 +1,201 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.sys.Jump;
+import at.searles.meelan.ops.sys.JumpRel;
+import at.searles.meelan.ops.sys.Next;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Analysis of loops in a program for executors that skip iterations.
+ * The ops of the loop around an op are those that are reachable from it
+ * and that can reach it again. Index size() of successors is the end of
+ * the program.
+ */
+final class Loops {
+
+    private Loops() {}
+
+    /**
+     * @return flags of the ops in the loop around op 'index' or null if the
+     * control flow is not known statically. The flag of index itself is only
+     * set if it is inside a loop.
+     */
+    static boolean[] body(int index, int[][] successors) {
+        int count = successors.length;
+
+        List<List<Integer>> predecessors = new ArrayList<>();
+
+        for(int i = 0; i <= count; ++i) {
+            predecessors.add(new ArrayList<>());
+        }
+
+        for(int i = 0; i < count; ++i) {
+            if(successors[i] == null) {
+                return null;
+            }
+
+            for(int successor : successors[i]) {
+                predecessors.get(successor).add(i);
+            }
+        }
+
+        boolean[] forward = new boolean[count + 1];
+        mark(index, forward, i -> {
+            List<Integer> list = new ArrayList<>();
+            for(int successor : successors[i]) list.add(successor);
+            return list;
+        }, count);
+
+        boolean[] backward = new boolean[count + 1];
+        mark(index, backward, predecessors::get, count);
+
+        boolean[] body = new boolean[count];
+
+        for(int i = 0; i < count; ++i) {
+            body[i] = forward[i] && backward[i];
+        }
+
+        return body;
+    }
+
+    private interface Edges {
+        List<Integer> of(int index);
+    }
+
+    private static void mark(int start, boolean[] visited, Edges edges, int count) {
+        // start itself is only marked if it is reached again.
+        ArrayList<Integer> stack = new ArrayList<>(edges.of(start));
+
+        while(!stack.isEmpty()) {
+            int i = stack.remove(stack.size() - 1);
+
+            if(i >= count || visited[i]) {
+                continue;
+            }
+
+            visited[i] = true;
+            stack.addAll(edges.of(i));
+        }
+    }
+
+    static boolean isNext(Opcode opcode) {
+        return opcode.instruction == Next.get() && opcode.typeKey().equals("ii");
+    }
+
+    /**
+     * @return the index of the argument that is written or -1. The target
+     * is the last argument, conditions and jumps have none, except for
+     * 'next' that increments its first argument.
+     */
+    static int target(Opcode opcode, int[] labelTargets) {
+        if(isNext(opcode)) {
+            return 0;
+        }
+
+        int last = opcode.arity() - 1;
+
+        if(last < 0 || labelTargets.length > 0 || !opcode.isRegister(last)
+                || opcode.instruction == Jump.get() || opcode.instruction == JumpRel.get()) {
+            return -1;
+        }
+
+        return last;
+    }
+
+    /**
+     * @return true if the op writes one of the words from to (exclusive).
+     */
+    static boolean writes(Opcode opcode, int[] slots, int[] labelTargets, int from, int to) {
+        int t = target(opcode, labelTargets);
+        return t >= 0 && slots[t] < to && from < slots[t] + opcode.type(t).words;
+    }
+
+    /**
+     * @return true if the op reads one of the words from to (exclusive).
+     */
+    static boolean reads(Opcode opcode, int[] slots, int[] labelTargets, int from, int to) {
+        int t = target(opcode, labelTargets);
+
+        for(int i = 0; i < opcode.arity(); ++i) {
+            if(opcode.isRegister(i) && (i != t || isNext(opcode))
+                    && slots[i] < to && from < slots[i] + opcode.type(i).words) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the words of registers that are written by ops in body.
+     */
+    static BitSet written(boolean[] body, Opcode[] opcodes, int[][] slots, int[][] labelTargets) {
+        BitSet words = new BitSet();
+
+        for(int i = 0; i < body.length; ++i) {
+            int t = body[i] ? target(opcodes[i], labelTargets[i]) : -1;
+
+            if(t >= 0) {
+                words.set(slots[i][t], slots[i][t] + opcodes[i].type(t).words);
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * @return the words of registers that may be read before they are written
+     * when op 'index' is executed next. All registers are live at the end
+     * of the program because the register file can be inspected after an
+     * execution. Requires that successors are known statically.
+     */
+    static BitSet liveIn(int index, Opcode[] opcodes, int[][] slots, int[][] successors, int[][] labelTargets, int registerCount) {
+        int count = opcodes.length;
+
+        BitSet[] liveIn = new BitSet[count + 1];
+
+        for(int i = 0; i < count; ++i) {
+            liveIn[i] = new BitSet();
+        }
+
+        liveIn[count] = new BitSet();
+        liveIn[count].set(0, registerCount);
+
+        boolean changed = true;
+
+        while(changed) {
+            changed = false;
+
+            for(int i = count - 1; i >= 0; --i) {
+                BitSet live = new BitSet();
+
+                for(int successor : successors[i]) {
+                    live.or(liveIn[successor]);
+                }
+
+                Opcode opcode = opcodes[i];
+                int t = target(opcode, labelTargets[i]);
+
+                if(t >= 0 && !isNext(opcode)) {
+                    live.clear(slots[i][t], slots[i][t] + opcode.type(t).words);
+                }
+
+                for(int k = 0; k < opcode.arity(); ++k) {
+                    if(opcode.isRegister(k) && (k != t || isNext(opcode))) {
+                        live.set(slots[i][k], slots[i][k] + opcode.type(k).words);
+                    }
+                }
+
+                if(!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        return liveIn[index];
+    }
+}
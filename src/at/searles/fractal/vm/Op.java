@@ -0,0 +1,15 @@
+package at.searles.fractal.vm;
+
+/**
+ * One decoded instruction. All operands are bound when the program
+ * is loaded, so executing an op does not allocate anything.
+ */
+@FunctionalInterface
+public interface Op {
+    /**
+     * @param r the register file
+     * @return the index of the next op. The program terminates if this
+     * is the number of ops.
+     */
+    int execute(double[] r);
+}
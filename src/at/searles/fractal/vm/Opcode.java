@@ -0,0 +1,93 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.SystemType;
+
+import java.util.List;
+
+/**
+ * One opcode of the int-code, ie a system instruction together
+ * with one of its signatures.
+ */
+public class Opcode {
+    public final int opcode;
+
+    /**
+     * Name of the instruction for this signature in FractviewInstructionSet,
+     * eg "palette_lab".
+     */
+    public final String name;
+    public final SystemInstruction instruction;
+
+    private final VmType[] types;
+    private final boolean[] registers;
+    private final boolean isSupported;
+
+    Opcode(int opcode, String name, SystemInstruction instruction, List<SystemType> signature) {
+        this.opcode = opcode;
+        this.name = name;
+        this.instruction = instruction;
+
+        this.types = new VmType[signature.size()];
+        this.registers = new boolean[signature.size()];
+
+        boolean isSupported = true;
+
+        for(int i = 0; i < types.length; ++i) {
+            types[i] = VmType.of(signature.get(i));
+            registers[i] = VmType.isRegister(signature.get(i));
+
+            isSupported &= types[i] != null;
+        }
+
+        this.isSupported = isSupported;
+    }
+
+    public int arity() {
+        return types.length;
+    }
+
+    public VmType type(int index) {
+        return types[index];
+    }
+
+    public boolean isRegister(int index) {
+        return registers[index];
+    }
+
+    public boolean isSupported() {
+        return isSupported;
+    }
+
+    /**
+     * Size of the arguments in the int-code (without trailing labels).
+     */
+    int argumentWords() {
+        int words = 0;
+
+        for(int i = 0; i < types.length; ++i) {
+            words += registers[i] ? 1 : types[i].words;
+        }
+
+        return words;
+    }
+
+    /**
+     * Key of the signature that ignores whether an argument is a
+     * constant or a register, eg "ccc" for add(cplx, cplxReg, cplxReg).
+     */
+    public String typeKey() {
+        StringBuilder sb = new StringBuilder(types.length);
+
+        for(VmType type : types) {
+            sb.append(type == null ? '?' : type.key);
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name + "/" + typeKey();
+    }
+}
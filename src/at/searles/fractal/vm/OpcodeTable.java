@@ -0,0 +1,51 @@
+package at.searles.fractal.vm;
+
+import at.searles.fractal.FractviewInstructionSet;
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.SystemType;
+
+import java.util.ArrayList;
+
+/**
+ * Maps opcodes in the int-code to system instructions. Opcodes are
+ * enumerated the same way as in InstructionSet.createVM(), ie
+ * for each system instruction in order of registration all its
+ * signatures.
+ */
+public class OpcodeTable {
+
+    private static OpcodeTable singleton;
+
+    public static synchronized OpcodeTable get() {
+        if(singleton == null) {
+            singleton = new OpcodeTable(FractviewInstructionSet.javaVm());
+        }
+
+        return singleton;
+    }
+
+    private final ArrayList<Opcode> opcodes;
+
+    private OpcodeTable(FractviewInstructionSet instructionSet) {
+        this.opcodes = new ArrayList<>();
+
+        for(SystemInstruction instruction : instructionSet.systemInstructions().keySet()) {
+            for(ArrayList<SystemType> signature : instruction.signatures()) {
+                String name = instructionSet.functionName(instruction, signature);
+                opcodes.add(new Opcode(opcodes.size(), name, instruction, signature));
+            }
+        }
+    }
+
+    public Opcode get(int opcode) {
+        if(opcode < 0 || opcode >= opcodes.size()) {
+            throw new UnsupportedInstructionException("bad opcode " + opcode);
+        }
+
+        return opcodes.get(opcode);
+    }
+
+    public int size() {
+        return opcodes.size();
+    }
+}
@@ -0,0 +1,133 @@
+package at.searles.fractal.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View on the arguments of one instruction while a program is loaded.
+ * Constants are already moved into the register file, hence all
+ * arguments are accessed via their slot in the register file.
+ * Successors that are requested by the binder are recorded so that
+ * the control flow of the program is known.
+ */
+public final class Operands {
+
+    private final Opcode opcode;
+    private final int[] slots;
+    private final int[] words;
+    private final int[] labels;
+    private final int nextIndex;
+    private final int nextOffset;
+    private final int[] pcToIndex;
+    private final PaletteTable[] palettes;
+    private final ScaleMapping mapping;
+
+    private final List<Integer> successors;
+    private boolean isDynamic;
+
+    Operands(Opcode opcode, int[] slots, int[] words, int[] labels, int nextIndex, int nextOffset,
+             int[] pcToIndex, PaletteTable[] palettes, ScaleMapping mapping) {
+        this.opcode = opcode;
+        this.slots = slots;
+        this.words = words;
+        this.labels = labels;
+        this.nextIndex = nextIndex;
+        this.nextOffset = nextOffset;
+        this.pcToIndex = pcToIndex;
+        this.palettes = palettes;
+        this.mapping = mapping;
+
+        this.successors = new ArrayList<>(2);
+        this.isDynamic = false;
+    }
+
+    public Opcode opcode() {
+        return opcode;
+    }
+
+    /**
+     * @return the slot of argument i in the register file.
+     */
+    public int arg(int i) {
+        return slots[i];
+    }
+
+    public boolean isConstant(int i) {
+        return !opcode.isRegister(i);
+    }
+
+    /**
+     * @return the first raw word of argument i in the int-code.
+     */
+    public int word(int i) {
+        return words[i];
+    }
+
+    /**
+     * @return the index of the op following this one.
+     */
+    public int next() {
+        return successor(nextIndex);
+    }
+
+    /**
+     * @return the index of the op that is the target of trailing label k.
+     */
+    public int label(int k) {
+        return target(labels[k]);
+    }
+
+    /**
+     * @return the index of the op at word offset pc.
+     */
+    public int target(int pc) {
+        if(pc < 0 || pc >= pcToIndex.length || pcToIndex[pc] < 0) {
+            throw new UnsupportedInstructionException("bad jump target " + pc + " in " + opcode);
+        }
+
+        return successor(pcToIndex[pc]);
+    }
+
+    /**
+     * For jumps whose target is only known at runtime. Entries in the returned
+     * table are -1 if the word offset is not the start of an instruction.
+     */
+    public int[] jumpTable() {
+        isDynamic = true;
+        return pcToIndex;
+    }
+
+    /**
+     * @return word offset of the op following this one.
+     */
+    public int nextOffset() {
+        return nextOffset;
+    }
+
+    public PaletteTable[] palettes() {
+        return palettes;
+    }
+
+    public ScaleMapping mapping() {
+        return mapping;
+    }
+
+    private int successor(int index) {
+        if(!successors.contains(index)) {
+            successors.add(index);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return null if the successors are only known at runtime.
+     */
+    int[] successors() {
+        if(isDynamic) {
+            return null;
+        }
+
+        return successors.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
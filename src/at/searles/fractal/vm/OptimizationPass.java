@@ -0,0 +1,14 @@
+package at.searles.fractal.vm;
+
+/**
+ * A transformation of int-code that does not change the result of
+ * any pixel.
+ */
+public interface OptimizationPass {
+    String name();
+
+    /**
+     * @return true if the code was modified.
+     */
+    boolean apply(IntCodeGraph graph);
+}
@@ -0,0 +1,87 @@
+package at.searles.fractal.vm;
+
+import at.searles.math.color.Palette;
+
+/**
+ * Interpolation of a palette for 'palette_lab' and 'palette_int'
+ * (which use samples of it, see PaletteTable). The palette is
+ * periodic in both directions and interpolated in lab space using
+ * Catmull-Rom splines. Lab values of the palette colors are computed
+ * once in the constructor.
+ */
+public class PaletteFunction {
+
+    private final int width;
+    private final int height;
+
+    /**
+     * Lab-quats of all colors, row by row, 4 doubles per color.
+     */
+    private final double[] lab;
+
+    public PaletteFunction(Palette palette) {
+        this.width = palette.width();
+        this.height = palette.height();
+        this.lab = new double[width * height * 4];
+
+        double[] tmp = new double[4 * VmType.STRIDE];
+
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                ColorOps.int2lab(palette.argb(x, y), tmp, 0);
+
+                int index = (y * width + x) * 4;
+
+                for(int k = 0; k < 4; ++k) {
+                    lab[index + k] = tmp[k * VmType.STRIDE];
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the lab-quat at coordinates x/y into register t.
+     */
+    public void lab(double x, double y, double[] r, int t) {
+        for(int k = 0; k < 4; ++k) {
+            r[t + k * VmType.STRIDE] = component(k, x, y);
+        }
+    }
+
+    public int argb(double x, double y) {
+        return ColorOps.lab2int(component(0, x, y), component(1, x, y), component(2, x, y), component(3, x, y));
+    }
+
+    private double component(int k, double x, double y) {
+        double fx = Math.floor(x);
+        double fy = Math.floor(y);
+
+        double tx = x - fx;
+        double ty = y - fy;
+
+        int x0 = (int) Math.floorMod((long) fx, (long) width);
+        int y0 = (int) Math.floorMod((long) fy, (long) height);
+
+        double p0 = row(k, x0, y0 - 1, tx);
+        double p1 = row(k, x0, y0, tx);
+        double p2 = row(k, x0, y0 + 1, tx);
+        double p3 = row(k, x0, y0 + 2, tx);
+
+        return spline(p0, p1, p2, p3, ty);
+    }
+
+    private double row(int k, int x0, int y, double tx) {
+        int base = Math.floorMod(y, height) * width;
+
+        double p0 = lab[(base + Math.floorMod(x0 - 1, width)) * 4 + k];
+        double p1 = lab[(base + x0) * 4 + k];
+        double p2 = lab[(base + (x0 + 1) % width) * 4 + k];
+        double p3 = lab[(base + (x0 + 2) % width) * 4 + k];
+
+        return spline(p0, p1, p2, p3, tx);
+    }
+
+    private static double spline(double p0, double p1, double p2, double p3, double t) {
+        return p1 + 0.5 * t * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 + t * (3 * (p1 - p2) + p3 - p0)));
+    }
+}
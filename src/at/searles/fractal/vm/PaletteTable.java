@@ -0,0 +1,195 @@
+package at.searles.fractal.vm;
+
+import at.searles.math.color.Palette;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed samples of a PaletteFunction for 'palette_lab' and
+ * 'palette_int' so that a lookup only interpolates linearly between the
+ * four neighbouring samples instead of evaluating the splines.
+ * 'resolution' is the number of samples between two palette colors.
+ * Since tables only depend on the colors of a palette, they are shared
+ * among all fractals with identical palettes.
+ */
+public class PaletteTable {
+
+    public static final int DEFAULT_RESOLUTION = 32;
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<Key, PaletteTable> cache =
+            new LinkedHashMap<Key, PaletteTable>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, PaletteTable> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private final int width;
+    private final int height;
+
+    private final double scaleX;
+    private final double scaleY;
+
+    /**
+     * Lab-quats of all samples, row by row, 4 floats per sample.
+     */
+    private final float[] lab;
+    private final int[] argb;
+
+    private PaletteTable(Palette palette, int resolution) {
+        PaletteFunction function = new PaletteFunction(palette);
+
+        // a palette with a single row or column is constant in that direction.
+        int resolutionX = palette.width() > 1 ? resolution : 1;
+        int resolutionY = palette.height() > 1 ? resolution : 1;
+
+        this.width = palette.width() * resolutionX;
+        this.height = palette.height() * resolutionY;
+        this.scaleX = resolutionX;
+        this.scaleY = resolutionY;
+
+        this.lab = new float[width * height * 4];
+        this.argb = new int[width * height];
+
+        double[] tmp = new double[4 * VmType.STRIDE];
+
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                int index = y * width + x;
+
+                function.lab(x / scaleX, y / scaleY, tmp, 0);
+
+                for(int k = 0; k < 4; ++k) {
+                    lab[index * 4 + k] = (float) tmp[k * VmType.STRIDE];
+                }
+
+                argb[index] = ColorOps.lab2int(tmp[0], tmp[VmType.STRIDE], tmp[2 * VmType.STRIDE], tmp[3 * VmType.STRIDE]);
+            }
+        }
+    }
+
+    public static PaletteTable get(Palette palette) {
+        return get(palette, DEFAULT_RESOLUTION);
+    }
+
+    public static PaletteTable get(Palette palette, int resolution) {
+        if(resolution < 1) {
+            throw new IllegalArgumentException("resolution must be positive");
+        }
+
+        Key key = new Key(palette, resolution);
+
+        synchronized (cache) {
+            PaletteTable table = cache.get(key);
+
+            if(table != null) {
+                return table;
+            }
+        }
+
+        // create outside of lock. In the worst case a table is created twice.
+        PaletteTable table = new PaletteTable(palette, resolution);
+
+        synchronized (cache) {
+            PaletteTable existing = cache.putIfAbsent(key, table);
+            return existing != null ? existing : table;
+        }
+    }
+
+    /**
+     * Writes the lab-quat at coordinates x/y into register t.
+     */
+    public void lab(double x, double y, double[] r, int t) {
+        double sx = x * scaleX, sy = y * scaleY;
+        double fx = Math.floor(sx), fy = Math.floor(sy);
+        double tx = sx - fx, ty = sy - fy;
+
+        int x0 = wrap(fx, width), x1 = (x0 + 1) % width;
+        int y0 = wrap(fy, height), y1 = (y0 + 1) % height;
+
+        int i00 = (y0 * width + x0) * 4, i01 = (y0 * width + x1) * 4;
+        int i10 = (y1 * width + x0) * 4, i11 = (y1 * width + x1) * 4;
+
+        for(int k = 0; k < 4; ++k) {
+            r[t + k * VmType.STRIDE] = bilinear(lab[i00 + k], lab[i01 + k], lab[i10 + k], lab[i11 + k], tx, ty);
+        }
+    }
+
+    /**
+     * Channels are interpolated separately in argb.
+     */
+    public int argb(double x, double y) {
+        double sx = x * scaleX, sy = y * scaleY;
+        double fx = Math.floor(sx), fy = Math.floor(sy);
+        double tx = sx - fx, ty = sy - fy;
+
+        int x0 = wrap(fx, width), x1 = (x0 + 1) % width;
+        int y0 = wrap(fy, height), y1 = (y0 + 1) % height;
+
+        int c00 = argb[y0 * width + x0], c01 = argb[y0 * width + x1];
+        int c10 = argb[y1 * width + x0], c11 = argb[y1 * width + x1];
+
+        int color = 0;
+
+        for(int shift = 0; shift < 32; shift += 8) {
+            double channel = bilinear(c00 >>> shift & 0xff, c01 >>> shift & 0xff,
+                    c10 >>> shift & 0xff, c11 >>> shift & 0xff, tx, ty);
+
+            color |= (int) Math.round(channel) << shift;
+        }
+
+        return color;
+    }
+
+    private static int wrap(double index, int size) {
+        return (int) Math.floorMod((long) index, (long) size);
+    }
+
+    private static double bilinear(double p00, double p01, double p10, double p11, double tx, double ty) {
+        double p0 = p00 + tx * (p01 - p00);
+        double p1 = p10 + tx * (p11 - p10);
+
+        return p0 + ty * (p1 - p0);
+    }
+
+    private static class Key {
+        final int width;
+        final int height;
+        final int[] colors;
+        final int resolution;
+
+        Key(Palette palette, int resolution) {
+            this.width = palette.width();
+            this.height = palette.height();
+            this.colors = new int[width * height];
+            this.resolution = resolution;
+
+            for(int y = 0; y < height; ++y) {
+                for(int x = 0; x < width; ++x) {
+                    colors[y * width + x] = palette.argb(x, y);
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return width == other.width && height == other.height
+                    && resolution == other.resolution && Arrays.equals(colors, other.colors);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Arrays.hashCode(colors) * 31 + width) * 31 + resolution;
+        }
+    }
+}
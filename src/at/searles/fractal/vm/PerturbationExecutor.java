@@ -0,0 +1,348 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.special.Mandelbrot;
+import at.searles.meelan.ops.sys.MapCoordinates;
+import at.searles.meelan.ops.sys.Mov;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Executes programs that use 'mandelbrot' in deep zooms using
+ * perturbation theory. The orbit of the center of the scale Z_n is
+ * computed once with arbitrary precision (see ReferenceOrbit), every
+ * pixel only iterates its difference to it in double precision:
+ *
+ * d_(n+1) = (2 Z_n + d_n) d_n + dc
+ *
+ * For this purpose, complex registers carry a shadow value: A register
+ * is either the difference to Z_n of the reference orbit, the difference
+ * to the center of the scale (the result of 'map') or plain (everything
+ * else). 'map', 'mov' and 'mandelbrot' maintain these shadow values, all
+ * other instructions mark their target as plain. Register values
+ * themselves are Z_n + d_n resp. center + dc so that all instructions
+ * (like bailout-checks) work as usual.
+ *
+ * If the difference exceeds the current value or the reference orbit is
+ * too short, the orbit is rebased to its start (Z_0 = 0).
+ *
+ * With a series approximation, the first 'mandelbrot' of a loop starting
+ * at z = 0 directly yields z_n. The loop counter (the first argument of the
+ * 'next' in the loop) is advanced accordingly. This is only done for loops
+ * whose state is z and the counter (see seriesCounter), other loops (eg
+ * orbit traps that accumulate values in each iteration) iterate every step.
+ */
+public class PerturbationExecutor implements Executor {
+
+    private static final int PLAIN = -1;
+    private static final int CENTER = -2;
+
+    private final Program program;
+    private final ReferenceOrbit orbit;
+
+    private final Op[] ops;
+    private final double[] registers;
+
+    /**
+     * Shadow values: Differences and the index in the reference orbit resp.
+     * PLAIN or CENTER.
+     */
+    private final double[] delta;
+    private final int[] reference;
+
+    private SeriesApproximation series;
+
+    public PerturbationExecutor(Program program, ReferenceOrbit orbit) {
+        this(program, orbit, null);
+    }
+
+    public PerturbationExecutor(Program program, ReferenceOrbit orbit, SeriesApproximation series) {
+        this.program = program;
+        this.orbit = orbit;
+        this.series = series;
+        this.registers = program.image.clone();
+        this.delta = new double[registers.length];
+        this.reference = new int[registers.length];
+
+        this.ops = new Op[program.size()];
+
+        for(int i = 0; i < ops.length; ++i) {
+            ops[i] = bind(i);
+        }
+    }
+
+    /**
+     * @return true if the program contains the instructions that
+     * benefit from perturbation.
+     */
+    public static boolean isApplicable(Program program) {
+        boolean map = false, mandelbrot = false;
+
+        for(Opcode opcode : program.opcodes) {
+            map |= isMap(opcode);
+            mandelbrot |= isMandelbrot(opcode);
+        }
+
+        return map && mandelbrot;
+    }
+
+    /**
+     * @return a factory that uses perturbation for applicable programs
+     * and the interpreter otherwise. The series approximation for the
+     * image of mapping is computed once and shared by all executors.
+     */
+    public static ExecutorFactory factory(ReferenceOrbit orbit, ScaleMapping mapping) {
+        SeriesApproximation series = SeriesApproximation.forImage(orbit, mapping);
+
+        return program -> isApplicable(program)
+                ? new PerturbationExecutor(program, orbit, series)
+                : new Interpreter(program);
+    }
+
+    /**
+     * Sets the series approximation, eg one that is specific to the
+     * current tile. null disables skipping iterations.
+     */
+    public void useSeries(SeriesApproximation series) {
+        this.series = series;
+    }
+
+    private static boolean isMap(Opcode opcode) {
+        return opcode.instruction == MapCoordinates.get() && opcode.typeKey().equals("rrc");
+    }
+
+    private static boolean isMandelbrot(Opcode opcode) {
+        return opcode.instruction == Mandelbrot.get() && opcode.typeKey().equals("ccc");
+    }
+
+    private static boolean isCplxMov(Opcode opcode) {
+        return opcode.instruction == Mov.get() && opcode.typeKey().equals("cc");
+    }
+
+    private Op bind(int index) {
+        Opcode opcode = program.opcodes[index];
+        int[] slots = program.slots[index];
+        int n = index + 1;
+
+        if(isMap(opcode)) {
+            return map(slots[0], slots[1], slots[2], n);
+        }
+
+        if(isMandelbrot(opcode)) {
+            int[] counter = seriesCounter(program, index);
+            return mandelbrot(slots[0], slots[1], slots[2], counter, n);
+        }
+
+        if(isCplxMov(opcode)) {
+            return mov(slots[0], slots[1], n);
+        }
+
+        Op op = program.bound[index];
+        int last = opcode.arity() - 1;
+
+        if(last < 0 || program.labelTargets[index].length > 0 || !opcode.isRegister(last)) {
+            // conditions and jumps do not modify complex registers.
+            return op;
+        }
+
+        int t = slots[last];
+
+        return r -> {
+            reference[t] = PLAIN;
+            return op.execute(r);
+        };
+    }
+
+    /**
+     * @return the slots of the counter and the limit of the loop around
+     * the mandelbrot op 'index' if the series approximation may skip its
+     * iterations, otherwise null. Apart from z and the counter, no value
+     * that is written in the loop may be read before it is written again
+     * (eg accumulated traps or zlast), and only the 'next' of the loop may
+     * access the counter.
+     */
+    private static int[] seriesCounter(Program program, int index) {
+        boolean[] body = Loops.body(index, program.successors);
+
+        if(body == null || !body[index]) {
+            return null;
+        }
+
+        int next = -1;
+
+        for(int i = 0; i < body.length; ++i) {
+            if(body[i] && Loops.isNext(program.opcodes[i])) {
+                if(next >= 0) {
+                    return null;
+                }
+
+                next = i;
+            }
+        }
+
+        if(next < 0) {
+            return null;
+        }
+
+        int[] counter = program.slots[next];
+
+        for(int i = 0; i < body.length; ++i) {
+            if(!body[i] || i == next) {
+                continue;
+            }
+
+            Opcode opcode = program.opcodes[i];
+            int[] slots = program.slots[i];
+            int[] labels = program.labelTargets[i];
+
+            if(Loops.reads(opcode, slots, labels, counter[0], counter[0] + 1)
+                    || Loops.writes(opcode, slots, labels, counter[0], counter[0] + 1)
+                    || Loops.writes(opcode, slots, labels, counter[1], counter[1] + 1)) {
+                return null;
+            }
+        }
+
+        BitSet carried = Loops.liveIn(index, program.opcodes, program.slots, program.successors, program.labelTargets, program.registerCount);
+        carried.and(Loops.written(body, program.opcodes, program.slots, program.labelTargets));
+
+        int z = program.slots[index][0];
+
+        carried.clear(z, z + VmType.Cplx.words);
+        carried.clear(counter[0]);
+
+        return carried.isEmpty() ? counter : null;
+    }
+
+    private Op map(int x, int y, int t, int n) {
+        ScaleMapping m = program.mapping;
+        DeepScale s = orbit.scale;
+
+        return r -> {
+            double nx = m.normX(r[x]), ny = m.normY(r[y]);
+
+            double dx = s.xx * nx + s.yx * ny;
+            double dy = s.xy * nx + s.yy * ny;
+
+            r[t] = orbit.cRe + dx;
+            r[t + 2] = orbit.cIm + dy;
+
+            delta[t] = dx;
+            delta[t + 2] = dy;
+            reference[t] = CENTER;
+
+            return n;
+        };
+    }
+
+    private Op mov(int a, int t, int n) {
+        return r -> {
+            r[t] = r[a];
+            r[t + 2] = r[a + 2];
+
+            delta[t] = delta[a];
+            delta[t + 2] = delta[a + 2];
+            reference[t] = reference[a];
+
+            return n;
+        };
+    }
+
+    private Op mandelbrot(int z, int c, int t, int[] counter, int n) {
+        double[] zr = orbit.re;
+        double[] zi = orbit.im;
+        int length = zr.length;
+
+        return r -> {
+            if(reference[c] != CENTER) {
+                // no perturbation possible.
+                double re = r[z], im = r[z + 2];
+                r[t] = re * re - im * im + r[c];
+                r[t + 2] = 2 * re * im + r[c + 2];
+                reference[t] = PLAIN;
+                return n;
+            }
+
+            int k = reference[z];
+            double dr, di;
+
+            if(k < 0 && counter != null && series != null && r[z] == 0 && r[z + 2] == 0) {
+                int skip = series.iterations;
+                int i = counter[0];
+
+                if(skip > 1 && r[i] + skip < r[counter[1]]) {
+                    series.delta(delta[c], delta[c + 2], delta, t);
+
+                    r[t] = zr[skip] + delta[t];
+                    r[t + 2] = zi[skip] + delta[t + 2];
+                    reference[t] = skip;
+
+                    // 'next' adds the last one.
+                    r[i] += skip - 1;
+                    return n;
+                }
+            }
+
+            if(k < 0) {
+                // plain values are differences to Z_0 = 0.
+                k = 0;
+                dr = r[z];
+                di = r[z + 2];
+            } else {
+                dr = delta[z];
+                di = delta[z + 2];
+            }
+
+            if(k + 1 >= length) {
+                // rebase
+                dr += zr[k];
+                di += zi[k];
+                k = 0;
+            }
+
+            double ar = 2 * zr[k] + dr, ai = 2 * zi[k] + di;
+
+            double nr = ar * dr - ai * di + delta[c];
+            double ni = ar * di + ai * dr + delta[c + 2];
+
+            k++;
+
+            double re = zr[k] + nr, im = zi[k] + ni;
+
+            if(re * re + im * im < nr * nr + ni * ni) {
+                // rebase
+                nr = re;
+                ni = im;
+                k = 0;
+            }
+
+            r[t] = re;
+            r[t + 2] = im;
+            delta[t] = nr;
+            delta[t + 2] = ni;
+            reference[t] = k;
+
+            return n;
+        };
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    @Override
+    public int execute(int x, int y) {
+        double[] r = registers;
+        Op[] ops = this.ops;
+
+        Arrays.fill(reference, PLAIN);
+
+        r[Interpreter.X_REGISTER] = x;
+        r[Interpreter.Y_REGISTER] = y;
+
+        for(int pc = 0; pc < ops.length; ) {
+            pc = ops[pc].execute(r);
+        }
+
+        return (int) r[Interpreter.COLOR_REGISTER];
+    }
+}
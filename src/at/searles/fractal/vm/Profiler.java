@@ -0,0 +1,190 @@
+package at.searles.fractal.vm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in instrumentation of the interpreter. Executors created by a
+ * profiler count executions and nanoseconds of each op. Results are
+ * available per code offset and per opcode, named after the
+ * instructions in FractviewInstructionSet. Timing every op is expensive
+ * itself, hence only relative numbers are meaningful.
+ *
+ * Executors of a profiler may run on different threads; each of them
+ * has its own counters which are summed up in the results.
+ */
+public class Profiler implements ExecutorFactory {
+
+    private final Program program;
+    private final List<Counters> counters = new ArrayList<>();
+
+    public Profiler(Program program) {
+        this.program = program;
+    }
+
+    @Override
+    public Executor executor(Program program) {
+        if(program != this.program) {
+            throw new IllegalArgumentException("profiler belongs to a different program");
+        }
+
+        Counters c = new Counters(program.size());
+
+        synchronized (counters) {
+            counters.add(c);
+        }
+
+        return new ProfilingExecutor(program, c);
+    }
+
+    public Executor executor() {
+        return executor(program);
+    }
+
+    public static class Entry {
+        /**
+         * Name and type key of the instruction, eg "mul/ccc".
+         */
+        public final String name;
+
+        /**
+         * Offset in the int-code or -1 if the entry sums up all offsets.
+         */
+        public final int offset;
+
+        public final long count;
+        public final long nanos;
+
+        Entry(String name, int offset, long count, long nanos) {
+            this.name = name;
+            this.offset = offset;
+            this.count = count;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %8s %12d %10.3fms %8.1fns/op",
+                    name, offset >= 0 ? "@" + offset : "", count, nanos / 1e6, count > 0 ? (double) nanos / count : 0.);
+        }
+    }
+
+    /**
+     * @return one entry per op, sorted by time.
+     */
+    public List<Entry> byOffset() {
+        long[] count = new long[program.size()];
+        long[] nanos = new long[program.size()];
+
+        sum(count, nanos);
+
+        List<Entry> entries = new ArrayList<>();
+
+        for(int i = 0; i < count.length; ++i) {
+            entries.add(new Entry(program.opcode(i).toString(), program.offset(i), count[i], nanos[i]));
+        }
+
+        entries.sort(Comparator.comparingLong((Entry e) -> e.nanos).reversed());
+
+        return entries;
+    }
+
+    /**
+     * @return one entry per opcode, sorted by time.
+     */
+    public List<Entry> byOpcode() {
+        long[] count = new long[program.size()];
+        long[] nanos = new long[program.size()];
+
+        sum(count, nanos);
+
+        Map<String, long[]> sums = new LinkedHashMap<>();
+
+        for(int i = 0; i < count.length; ++i) {
+            long[] sum = sums.computeIfAbsent(program.opcode(i).toString(), k -> new long[2]);
+            sum[0] += count[i];
+            sum[1] += nanos[i];
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        sums.forEach((name, sum) -> entries.add(new Entry(name, -1, sum[0], sum[1])));
+
+        entries.sort(Comparator.comparingLong((Entry e) -> e.nanos).reversed());
+
+        return entries;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("by opcode:\n");
+        byOpcode().forEach(e -> sb.append(e).append('\n'));
+
+        sb.append("by offset:\n");
+        byOffset().forEach(e -> sb.append(e).append('\n'));
+
+        return sb.toString();
+    }
+
+    private void sum(long[] count, long[] nanos) {
+        synchronized (counters) {
+            for(Counters c : counters) {
+                for(int i = 0; i < count.length; ++i) {
+                    count[i] += c.count[i];
+                    nanos[i] += c.nanos[i];
+                }
+            }
+        }
+    }
+
+    private static class Counters {
+        final long[] count;
+        final long[] nanos;
+
+        Counters(int size) {
+            this.count = new long[size];
+            this.nanos = new long[size];
+        }
+    }
+
+    private static class ProfilingExecutor implements Executor {
+        private final Op[] ops;
+        private final double[] registers;
+        private final Counters counters;
+
+        ProfilingExecutor(Program program, Counters counters) {
+            this.ops = program.ops;
+            this.registers = program.image.clone();
+            this.counters = counters;
+        }
+
+        @Override
+        public int execute(int x, int y) {
+            double[] r = registers;
+            Op[] ops = this.ops;
+            long[] count = counters.count;
+            long[] nanos = counters.nanos;
+
+            r[Interpreter.X_REGISTER] = x;
+            r[Interpreter.Y_REGISTER] = y;
+
+            long time = System.nanoTime();
+
+            for(int pc = 0; pc < ops.length; ) {
+                int next = ops[pc].execute(r);
+                long now = System.nanoTime();
+
+                count[pc]++;
+                nanos[pc] += now - time;
+
+                time = now;
+                pc = next;
+            }
+
+            return (int) r[Interpreter.COLOR_REGISTER];
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package at.searles.fractal.vm;
+
+import at.searles.fractal.Fractal;
+import at.searles.math.color.Palette;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The int-code of a fractal decoded for the java vm. Each instruction
+ * is bound to an op with fixed register slots, constants are moved into
+ * the register file. A program is immutable and can be shared by
+ * multiple interpreters.
+ */
+public class Program {
+
+    final int[] code;
+    final Op[] ops;
+
+    /**
+     * ops without interior detection. Executors that keep state that is
+     * not in the register file (eg shadow values of perturbation) use these
+     * because the detection would not compare it.
+     */
+    final Op[] bound;
+
+    /**
+     * ops with frequent pairs fused into superinstructions. Executors
+     * that track single ops (eg profilers) use ops instead.
+     */
+    final Op[] fused;
+
+    /**
+     * Word offsets of ops in the int-code. The last entry is the length of the code.
+     */
+    final int[] offsets;
+    final Opcode[] opcodes;
+    final int[][] slots;
+
+    /**
+     * Possible successors of each op. null if the successor is only
+     * known at runtime.
+     */
+    final int[][] successors;
+
+    /**
+     * Op indices of the trailing labels of each op (eg for conditions
+     * the target if the condition holds followed by the one if it does not).
+     */
+    final int[][] labelTargets;
+
+    /**
+     * Initial register file. Registers are followed by constants.
+     */
+    final double[] image;
+    final int registerCount;
+
+    final PaletteTable[] palettes;
+    final ScaleMapping mapping;
+
+    /**
+     * Whether InteriorDetection was applied. It is opt-in, see
+     * withInteriorDetection.
+     */
+    final boolean interiorDetection;
+
+    /**
+     * Number of loops with interior detection.
+     */
+    final int interiorLoops;
+
+    public static Program load(Fractal fractal, int width, int height) {
+        List<PaletteTable> tables = fractal.paletteTables();
+        return new Program(fractal.code(), tables.toArray(new PaletteTable[0]), new ScaleMapping(fractal.scale(), width, height), false);
+    }
+
+    public static Program load(int[] code, List<Palette> palettes, ScaleMapping mapping) {
+        PaletteTable[] tables = new PaletteTable[palettes.size()];
+
+        for(int i = 0; i < tables.length; ++i) {
+            tables[i] = PaletteTable.get(palettes.get(i));
+        }
+
+        return new Program(code, tables, mapping, false);
+    }
+
+    private Program(int[] code, PaletteTable[] palettes, ScaleMapping mapping, boolean interiorDetection) {
+        this.code = code;
+        this.palettes = palettes;
+        this.mapping = mapping;
+        this.interiorDetection = interiorDetection;
+
+        OpcodeTable table = OpcodeTable.get();
+
+        // Pass 1: Find instruction boundaries and the size of the register file.
+        int[] pcToIndex = new int[code.length + 1];
+        Arrays.fill(pcToIndex, -1);
+
+        int[] offsets = new int[code.length + 1];
+        Opcode[] opcodes = new Opcode[code.length];
+
+        int count = 0;
+        int registerCount = Interpreter.COLOR_REGISTER + 1;
+        int constantWords = 0;
+
+        for(int pc = 0; pc < code.length; ) {
+            Opcode opcode = table.get(code[pc]);
+
+            if(!opcode.isSupported()) {
+                throw new UnsupportedInstructionException("unsupported signature in " + opcode);
+            }
+
+            Semantics.Entry entry = Semantics.entry(opcode);
+
+            pcToIndex[pc] = count;
+            offsets[count] = pc;
+            opcodes[count] = opcode;
+            count++;
+
+            int w = pc + 1;
+
+            for(int i = 0; i < opcode.arity(); ++i) {
+                VmType type = opcode.type(i);
+
+                if(opcode.isRegister(i)) {
+                    registerCount = Math.max(registerCount, code[w] + type.words);
+                    w++;
+                } else {
+                    constantWords += type.words;
+                    w += type.words;
+                }
+            }
+
+            pc = w + entry.labels;
+
+            if(pc > code.length) {
+                throw new UnsupportedInstructionException("truncated instruction " + opcode);
+            }
+        }
+
+        pcToIndex[code.length] = count;
+        offsets[count] = code.length;
+
+        this.offsets = Arrays.copyOf(offsets, count + 1);
+        this.opcodes = Arrays.copyOf(opcodes, count);
+        this.registerCount = registerCount;
+        double[] image = new double[registerCount + constantWords];
+
+        // Pass 2: Bind ops.
+        Op[] ops = new Op[count];
+        this.slots = new int[count][];
+        this.successors = new int[count][];
+        this.labelTargets = new int[count][];
+
+        int constantSlot = registerCount;
+
+        for(int index = 0; index < count; ++index) {
+            Opcode opcode = this.opcodes[index];
+            Semantics.Entry entry = Semantics.entry(opcode);
+
+            int[] argSlots = new int[opcode.arity()];
+            int[] words = new int[opcode.arity()];
+
+            int w = this.offsets[index] + 1;
+
+            for(int i = 0; i < opcode.arity(); ++i) {
+                VmType type = opcode.type(i);
+                words[i] = code[w];
+
+                if(opcode.isRegister(i)) {
+                    argSlots[i] = code[w];
+                    w++;
+                } else {
+                    type.load(code, w, image, constantSlot);
+                    argSlots[i] = constantSlot;
+                    constantSlot += type.words;
+                    w += type.words;
+                }
+            }
+
+            int[] labels = Arrays.copyOfRange(code, w, w + entry.labels);
+
+            Operands operands = new Operands(opcode, argSlots, words, labels, index + 1,
+                    this.offsets[index + 1], pcToIndex, palettes, mapping);
+
+            ops[index] = entry.binder.bind(operands);
+            this.slots[index] = argSlots;
+            this.successors[index] = operands.successors();
+            this.labelTargets[index] = new int[labels.length];
+
+            for(int k = 0; k < labels.length; ++k) {
+                this.labelTargets[index][k] = operands.label(k);
+            }
+        }
+
+        // Pass 3: Interior detection for lake pixels.
+        this.bound = ops;
+
+        if(interiorDetection) {
+            this.ops = ops.clone();
+            this.image = InteriorDetection.apply(this.ops, this.opcodes, slots, successors, labelTargets, image, registerCount);
+            this.interiorLoops = InteriorDetection.count(ops, this.ops);
+        } else {
+            this.ops = ops;
+            this.image = image;
+            this.interiorLoops = 0;
+        }
+
+        // Pass 4: Superinstructions.
+        this.fused = Superinstructions.apply(this.ops, this.opcodes, slots, successors, labelTargets);
+    }
+
+    private Program(Program program, int[] code, double[] image) {
+        this.code = code;
+        this.ops = program.ops;
+        this.bound = program.bound;
+        this.fused = program.fused;
+        this.offsets = program.offsets;
+        this.opcodes = program.opcodes;
+        this.slots = program.slots;
+        this.successors = program.successors;
+        this.labelTargets = program.labelTargets;
+        this.image = image;
+        this.registerCount = program.registerCount;
+        this.palettes = program.palettes;
+        this.mapping = program.mapping;
+        this.interiorDetection = program.interiorDetection;
+        this.interiorLoops = program.interiorLoops;
+    }
+
+    /**
+     * @return the same program with other values of uniforms. Ops are
+     * shared, only the constants in the register file are replaced.
+     */
+    public Program withUniforms(double[] uniforms) {
+        int[] code = Uniforms.patch(this.code, uniforms);
+
+        if(code == null) {
+            throw new UnsupportedInstructionException("cannot patch uniforms");
+        }
+
+        double[] image = this.image.clone();
+        Uniforms.patch(opcodes, slots, image, uniforms);
+
+        return new Program(this, code, image);
+    }
+
+    /**
+     * @return the same program with a different mapping, eg one with
+     * a sub-pixel offset.
+     */
+    public Program withMapping(ScaleMapping mapping) {
+        return new Program(code, palettes, mapping, interiorDetection);
+    }
+
+    /**
+     * @return the same program in which lake pixels of loops stop early
+     * once their state repeats (see InteriorDetection).
+     */
+    public Program withInteriorDetection(boolean enabled) {
+        return new Program(code, palettes, mapping, enabled);
+    }
+
+    public int size() {
+        return ops.length;
+    }
+
+    /**
+     * @return the number of fused pairs of ops.
+     */
+    public int superinstructionCount() {
+        return Superinstructions.count(ops, fused);
+    }
+
+    /**
+     * @return the number of loops with interior detection.
+     */
+    public int interiorLoopCount() {
+        return interiorLoops;
+    }
+
+    public int[] code() {
+        return code;
+    }
+
+    public ScaleMapping mapping() {
+        return mapping;
+    }
+
+    public Opcode opcode(int index) {
+        return opcodes[index];
+    }
+
+    /**
+     * @return the word offset in the int-code of op 'index'.
+     */
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return the size of the register file including constants.
+     */
+    public int registerFileSize() {
+        return image.length;
+    }
+}
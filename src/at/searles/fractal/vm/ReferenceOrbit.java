@@ -0,0 +1,74 @@
+package at.searles.fractal.vm;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Orbit of the center of a deep scale under z^2 + c, starting with z = 0.
+ * It is computed once with arbitrary precision and stored as doubles.
+ */
+public class ReferenceOrbit {
+
+    /**
+     * The orbit is stopped if the squared radius exceeds this value.
+     */
+    private static final double ESCAPE_RADIUS2 = 1e16;
+
+    public final DeepScale scale;
+
+    final double[] re;
+    final double[] im;
+    final double cRe;
+    final double cIm;
+
+    private ReferenceOrbit(DeepScale scale, double[] re, double[] im) {
+        this.scale = scale;
+        this.re = re;
+        this.im = im;
+        this.cRe = scale.cx.doubleValue();
+        this.cIm = scale.cy.doubleValue();
+    }
+
+    public static ReferenceOrbit compute(DeepScale scale, int maxIterations) {
+        if(maxIterations < 1) {
+            throw new IllegalArgumentException("maxIterations must be positive");
+        }
+
+        MathContext mc = new MathContext(scale.precision());
+
+        double[] re = new double[maxIterations + 1];
+        double[] im = new double[maxIterations + 1];
+
+        BigDecimal x = BigDecimal.ZERO;
+        BigDecimal y = BigDecimal.ZERO;
+        BigDecimal two = BigDecimal.valueOf(2);
+
+        int length = 1;
+
+        while(length <= maxIterations) {
+            BigDecimal x2 = x.multiply(x, mc);
+            BigDecimal y2 = y.multiply(y, mc);
+
+            BigDecimal nextY = two.multiply(x, mc).multiply(y, mc).add(scale.cy, mc);
+            x = x2.subtract(y2, mc).add(scale.cx, mc);
+            y = nextY;
+
+            re[length] = x.doubleValue();
+            im[length] = y.doubleValue();
+            length++;
+
+            if(re[length - 1] * re[length - 1] + im[length - 1] * im[length - 1] > ESCAPE_RADIUS2) {
+                break;
+            }
+        }
+
+        return new ReferenceOrbit(scale,
+                Arrays.copyOf(re, length),
+                Arrays.copyOf(im, length));
+    }
+
+    public int length() {
+        return re.length;
+    }
+}
@@ -0,0 +1,82 @@
+package at.searles.fractal.vm;
+
+import at.searles.math.Scale;
+
+/**
+ * Implementation of 'map'. Pixel coordinates are normalized so that
+ * the shorter side of the image ranges from -1 to 1 and then
+ * transformed by the scale. Pixels are sampled at their center plus
+ * an optional offset (eg for anti-aliasing).
+ */
+public class ScaleMapping {
+    public final Scale scale;
+    public final int width;
+    public final int height;
+
+    private final double centerX;
+    private final double centerY;
+    private final double factor;
+
+    private final double offsetX;
+    private final double offsetY;
+
+    public ScaleMapping(Scale scale, int width, int height) {
+        this(scale, width, height, 0, 0);
+    }
+
+    /**
+     * @param offsetX offset of samples in pixels relative to the pixel center.
+     * @param offsetY offset of samples in pixels relative to the pixel center.
+     */
+    public ScaleMapping(Scale scale, int width, int height, double offsetX, double offsetY) {
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+
+        this.centerX = width / 2.;
+        this.centerY = height / 2.;
+        this.factor = 2. / Math.min(width, height);
+    }
+
+    public ScaleMapping withOffset(double offsetX, double offsetY) {
+        return new ScaleMapping(scale, width, height, offsetX, offsetY);
+    }
+
+    public double normX(double x) {
+        return (x + 0.5 + offsetX - centerX) * factor;
+    }
+
+    public double normY(double y) {
+        return (y + 0.5 + offsetY - centerY) * factor;
+    }
+
+    public double x(double x, double y) {
+        return scale.xx * normX(x) + scale.yx * normY(y) + scale.cx;
+    }
+
+    public double y(double x, double y) {
+        return scale.xy * normX(x) + scale.yy * normY(y) + scale.cy;
+    }
+
+    /**
+     * Inverse of x/y: The pixel x-coordinate of the point x/y.
+     */
+    public double pixelX(double x, double y) {
+        double dx = x - scale.cx, dy = y - scale.cy;
+        double det = scale.xx * scale.yy - scale.xy * scale.yx;
+
+        return (scale.yy * dx - scale.yx * dy) / det / factor + centerX - 0.5 - offsetX;
+    }
+
+    /**
+     * Inverse of x/y: The pixel y-coordinate of the point x/y.
+     */
+    public double pixelY(double x, double y) {
+        double dx = x - scale.cx, dy = y - scale.cy;
+        double det = scale.xx * scale.yy - scale.xy * scale.yx;
+
+        return (scale.xx * dy - scale.xy * dx) / det / factor + centerY - 0.5 - offsetY;
+    }
+}
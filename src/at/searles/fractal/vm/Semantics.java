@@ -0,0 +1,784 @@
+package at.searles.fractal.vm;
+
+import at.searles.fractal.LdPalette;
+import at.searles.fractal.LdUniform;
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.analysis.*;
+import at.searles.meelan.ops.arithmetics.*;
+import at.searles.meelan.ops.color.*;
+import at.searles.meelan.ops.comparison.*;
+import at.searles.meelan.ops.complex.*;
+import at.searles.meelan.ops.cons.Cons;
+import at.searles.meelan.ops.cons.IntToReal;
+import at.searles.meelan.ops.cons.RealToInt;
+import at.searles.meelan.ops.graphics.Box;
+import at.searles.meelan.ops.graphics.Circle;
+import at.searles.meelan.ops.graphics.Line;
+import at.searles.meelan.ops.graphics.Segment;
+import at.searles.meelan.ops.numeric.*;
+import at.searles.meelan.ops.special.*;
+import at.searles.meelan.ops.sys.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java implementations of all system instructions in FractviewInstructionSet.
+ * Implementations are selected by the instruction and the type key of the
+ * signature (see Opcode.typeKey()). The last argument is the target unless
+ * the instruction is a condition. Conditions have trailing labels in the
+ * int-code: the jump target if the condition holds followed by the one
+ * if it does not hold.
+ */
+final class Semantics {
+
+    interface Binder {
+        Op bind(Operands o);
+    }
+
+    static final class Entry {
+        /**
+         * Number of words following the arguments that are jump targets.
+         */
+        final int labels;
+        final Binder binder;
+
+        Entry(int labels, Binder binder) {
+            this.labels = labels;
+            this.binder = binder;
+        }
+    }
+
+    private static final Map<SystemInstruction, Map<String, Entry>> entries = new HashMap<>();
+
+    static {
+        constructors();
+        arithmetics();
+        analysis();
+        numeric();
+        complex();
+        comparisons();
+        graphics();
+        colors();
+        special();
+        sys();
+        palettes();
+        uniforms();
+    }
+
+    private Semantics() {}
+
+    static Entry entry(Opcode opcode) {
+        Map<String, Entry> signatures = entries.get(opcode.instruction);
+        Entry entry = signatures != null ? signatures.get(opcode.typeKey()) : null;
+
+        if(entry == null) {
+            throw new UnsupportedInstructionException("no implementation for " + opcode);
+        }
+
+        return entry;
+    }
+
+    private static void put(SystemInstruction instruction, String typeKey, Binder binder) {
+        put(instruction, typeKey, 0, binder);
+    }
+
+    private static void put(SystemInstruction instruction, String typeKey, int labels, Binder binder) {
+        entries.computeIfAbsent(instruction, k -> new HashMap<>()).put(typeKey, new Entry(labels, binder));
+    }
+
+    // === Shapes for instructions that are not performance critical ===
+
+    private interface RealFn {
+        double apply(double x);
+    }
+
+    private interface CplxFn {
+        void apply(double[] r, int a, int t);
+    }
+
+    private interface CplxToRealFn {
+        double apply(double re, double im);
+    }
+
+    private static Binder real(RealFn fn) {
+        return o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = fn.apply(r[a]); return n; };
+        };
+    }
+
+    private static Binder cplx(CplxFn fn) {
+        return o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { fn.apply(r, a, t); return n; };
+        };
+    }
+
+    /**
+     * Applies fn component-wise.
+     */
+    private static Binder components(RealFn fn, VmType type) {
+        int components = type.components();
+
+        return o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+
+            return r -> {
+                for(int k = 0; k < components * VmType.STRIDE; k += VmType.STRIDE) {
+                    r[t + k] = fn.apply(r[a + k]);
+                }
+
+                return n;
+            };
+        };
+    }
+
+    private static Binder cplxToReal(CplxToRealFn fn) {
+        return o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = fn.apply(r[a], r[a + 2]); return n; };
+        };
+    }
+
+    // === Constructors ===
+
+    private static void constructors() {
+        put(Cons.get(), "rrc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { double re = r[a]; r[t + 2] = r[b]; r[t] = re; return n; };
+        });
+
+        put(Cons.get(), "rrrrq", o -> {
+            int a = o.arg(0), b = o.arg(1), c = o.arg(2), d = o.arg(3), t = o.arg(4), n = o.next();
+            return r -> {
+                double v0 = r[a], v1 = r[b], v2 = r[c], v3 = r[d];
+                r[t] = v0; r[t + 2] = v1; r[t + 4] = v2; r[t + 6] = v3;
+                return n;
+            };
+        });
+
+        put(RealToInt.get(), "ri", real(Math::floor));
+        put(IntToReal.get(), "ir", real(x -> x));
+    }
+
+    // === Arithmetics ===
+
+    private static void arithmetics() {
+        put(Add.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = (int) r[a] + (int) r[b]; return n; };
+        });
+
+        put(Add.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] + r[b]; return n; };
+        });
+
+        put(Add.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] + r[b]; r[t + 2] = r[a + 2] + r[b + 2]; return n; };
+        });
+
+        put(Add.get(), "qqq", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> {
+                r[t] = r[a] + r[b]; r[t + 2] = r[a + 2] + r[b + 2];
+                r[t + 4] = r[a + 4] + r[b + 4]; r[t + 6] = r[a + 6] + r[b + 6];
+                return n;
+            };
+        });
+
+        put(Sub.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = (int) r[a] - (int) r[b]; return n; };
+        });
+
+        put(Sub.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] - r[b]; return n; };
+        });
+
+        put(Sub.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] - r[b]; r[t + 2] = r[a + 2] - r[b + 2]; return n; };
+        });
+
+        put(Sub.get(), "qqq", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> {
+                r[t] = r[a] - r[b]; r[t + 2] = r[a + 2] - r[b + 2];
+                r[t + 4] = r[a + 4] - r[b + 4]; r[t + 6] = r[a + 6] - r[b + 6];
+                return n;
+            };
+        });
+
+        put(Mul.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = (int) r[a] * (int) r[b]; return n; };
+        });
+
+        put(Mul.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] * r[b]; return n; };
+        });
+
+        put(Mul.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.mul(r, a, b, t); return n; };
+        });
+
+        put(Mul.get(), "qqq", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.qmul(r, a, b, t); return n; };
+        });
+
+        put(Div.get(), "iir", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] / r[b]; return n; };
+        });
+
+        put(Div.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] / r[b]; return n; };
+        });
+
+        put(Div.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.div(r, a, b, t); return n; };
+        });
+
+        put(Div.get(), "qqq", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.qdiv(r, a, b, t); return n; };
+        });
+
+        put(Mod.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> {
+                int divisor = (int) r[b];
+                r[t] = divisor == 0 ? 0 : (int) r[a] % divisor;
+                return n;
+            };
+        });
+
+        put(Pow.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = (int) Math.pow((int) r[a], (int) r[b]); return n; };
+        });
+
+        put(Pow.get(), "rir", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.pow(r[a], r[b]); return n; };
+        });
+
+        put(Pow.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.pow(r[a], r[b]); return n; };
+        });
+
+        put(Pow.get(), "cic", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.pow(r, a, (int) r[b], t); return n; };
+        });
+
+        put(Pow.get(), "crc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.pow(r, a, r[b], 0, t); return n; };
+        });
+
+        put(Pow.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { CplxOps.pow(r, a, r[b], r[b + 2], t); return n; };
+        });
+
+        put(Recip.get(), "ir", real(x -> 1 / x));
+        put(Recip.get(), "rr", real(x -> 1 / x));
+        put(Recip.get(), "cc", cplx(CplxOps::recip));
+
+        put(Neg.get(), "ii", real(x -> -x));
+        put(Neg.get(), "rr", real(x -> -x));
+        put(Neg.get(), "cc", components(x -> -x, VmType.Cplx));
+        put(Neg.get(), "qq", components(x -> -x, VmType.Quat));
+    }
+
+    // === Analysis ===
+
+    private static void analysis() {
+        put(Atan.get(), "rr", real(Math::atan));
+        put(Atan.get(), "cc", cplx(CplxOps::atan));
+
+        put(Atanh.get(), "rr", real(x -> 0.5 * Math.log((1 + x) / (1 - x))));
+        put(Atanh.get(), "cc", cplx(CplxOps::atanh));
+
+        put(Cos.get(), "rr", real(Math::cos));
+        put(Cos.get(), "cc", cplx(CplxOps::cos));
+
+        put(Cosh.get(), "rr", real(Math::cosh));
+        put(Cosh.get(), "cc", cplx(CplxOps::cosh));
+
+        put(Exp.get(), "rr", real(Math::exp));
+        put(Exp.get(), "cc", cplx(CplxOps::exp));
+
+        put(Log.get(), "rr", real(Math::log));
+        put(Log.get(), "cc", cplx(CplxOps::log));
+
+        put(Sin.get(), "rr", real(Math::sin));
+        put(Sin.get(), "cc", cplx(CplxOps::sin));
+
+        put(Sinh.get(), "rr", real(Math::sinh));
+        put(Sinh.get(), "cc", cplx(CplxOps::sinh));
+
+        put(Sqrt.get(), "rr", real(Math::sqrt));
+        put(Sqrt.get(), "cc", cplx(CplxOps::sqrt));
+
+        put(Tan.get(), "rr", real(Math::tan));
+        put(Tan.get(), "cc", cplx(CplxOps::tan));
+
+        put(Tanh.get(), "rr", real(Math::tanh));
+        put(Tanh.get(), "cc", cplx(CplxOps::tanh));
+
+        put(Sqr.get(), "ii", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { int v = (int) r[a]; r[t] = v * v; return n; };
+        });
+
+        put(Sqr.get(), "rr", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { double v = r[a]; r[t] = v * v; return n; };
+        });
+
+        put(Sqr.get(), "cc", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> {
+                double re = r[a], im = r[a + 2];
+                r[t] = re * re - im * im; r[t + 2] = 2 * re * im;
+                return n;
+            };
+        });
+
+        put(Sqr.get(), "qq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { CplxOps.qmul(r, a, a, t); return n; };
+        });
+    }
+
+    // === Numeric ===
+
+    private static double circlefn(double x) {
+        return Math.sqrt(Math.max(0, 1 - x * x));
+    }
+
+    private static void numeric() {
+        put(Abs.get(), "ii", real(Math::abs));
+        put(Abs.get(), "rr", real(Math::abs));
+        put(Abs.get(), "cc", components(Math::abs, VmType.Cplx));
+        put(Abs.get(), "qq", components(Math::abs, VmType.Quat));
+
+        put(Floor.get(), "rr", real(Math::floor));
+        put(Floor.get(), "cc", components(Math::floor, VmType.Cplx));
+
+        put(Ceil.get(), "rr", real(Math::ceil));
+        put(Ceil.get(), "cc", components(Math::ceil, VmType.Cplx));
+
+        put(Fract.get(), "rr", real(x -> x - Math.floor(x)));
+        put(Fract.get(), "cc", components(x -> x - Math.floor(x), VmType.Cplx));
+
+        put(CircleFn.get(), "rr", real(Semantics::circlefn));
+        put(CircleFn.get(), "cc", components(Semantics::circlefn, VmType.Cplx));
+
+        put(Dot.get(), "ccr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] * r[b] + r[a + 2] * r[b + 2]; return n; };
+        });
+
+        put(ScalarMul.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a] * r[b]; r[t + 2] = r[a + 2] * r[b + 2]; return n; };
+        });
+
+        put(Max.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.max(r[a], r[b]); return n; };
+        });
+
+        put(Max.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.max(r[a], r[b]); return n; };
+        });
+
+        put(Max.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.max(r[a], r[b]); r[t + 2] = Math.max(r[a + 2], r[b + 2]); return n; };
+        });
+
+        put(Min.get(), "iii", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.min(r[a], r[b]); return n; };
+        });
+
+        put(Min.get(), "rrr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.min(r[a], r[b]); return n; };
+        });
+
+        put(Min.get(), "ccc", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.min(r[a], r[b]); r[t + 2] = Math.min(r[a + 2], r[b + 2]); return n; };
+        });
+    }
+
+    // === Complex ===
+
+    private static double arcnorm(double re, double im) {
+        double arc = Math.atan2(im, re) / (2 * Math.PI);
+        return arc < 0 ? arc + 1 : arc;
+    }
+
+    private static void complex() {
+        put(Conj.get(), "cc", cplx((r, a, t) -> CplxOps.set(r, t, r[a], -r[a + 2])));
+        put(Flip.get(), "cc", cplx((r, a, t) -> CplxOps.set(r, t, r[a + 2], r[a])));
+        put(RAbs.get(), "cc", cplx((r, a, t) -> CplxOps.set(r, t, Math.abs(r[a]), r[a + 2])));
+        put(IAbs.get(), "cc", cplx((r, a, t) -> CplxOps.set(r, t, r[a], Math.abs(r[a + 2]))));
+
+        put(Norm.get(), "cc", cplx((r, a, t) -> {
+            double d = Math.hypot(r[a], r[a + 2]);
+            CplxOps.set(r, t, r[a] / d, r[a + 2] / d);
+        }));
+
+        put(Polar.get(), "cc", cplx((r, a, t) ->
+                CplxOps.set(r, t, Math.hypot(r[a], r[a + 2]), Math.atan2(r[a + 2], r[a]))));
+
+        put(Rect.get(), "cc", cplx((r, a, t) ->
+                CplxOps.set(r, t, r[a] * Math.cos(r[a + 2]), r[a] * Math.sin(r[a + 2]))));
+
+        put(Arc.get(), "cr", cplxToReal((re, im) -> Math.atan2(im, re)));
+        put(Arcnorm.get(), "cr", cplxToReal(Semantics::arcnorm));
+        put(Rad.get(), "cr", cplxToReal(Math::hypot));
+
+        put(Rad2.get(), "cr", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { double re = r[a], im = r[a + 2]; r[t] = re * re + im * im; return n; };
+        });
+
+        put(Re.get(), "cr", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = r[a]; return n; };
+        });
+
+        put(Im.get(), "cr", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = r[a + 2]; return n; };
+        });
+
+        put(Dist.get(), "ccr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = Math.hypot(r[a] - r[b], r[a + 2] - r[b + 2]); return n; };
+        });
+
+        put(Dist2.get(), "ccr", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> {
+                double dr = r[a] - r[b], di = r[a + 2] - r[b + 2];
+                r[t] = dr * dr + di * di;
+                return n;
+            };
+        });
+    }
+
+    // === Comparisons ===
+
+    private static void comparisons() {
+        put(Equal.get(), "ii", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> r[a] == r[b] ? yes : no;
+        });
+
+        put(Equal.get(), "rr", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> r[a] == r[b] ? yes : no;
+        });
+
+        put(Less.get(), "ii", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> r[a] < r[b] ? yes : no;
+        });
+
+        put(Less.get(), "rr", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> r[a] < r[b] ? yes : no;
+        });
+    }
+
+    // === Graphics ===
+
+    /**
+     * Distance of p from the segment a-b. If isLine, the segment is extended
+     * to a line.
+     */
+    private static double segmentDist(double ax, double ay, double bx, double by, double px, double py, boolean isLine) {
+        double dx = bx - ax, dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+
+        if(len2 == 0) {
+            return Math.hypot(px - ax, py - ay);
+        }
+
+        double t = ((px - ax) * dx + (py - ay) * dy) / len2;
+
+        if(!isLine) {
+            t = Math.max(0, Math.min(1, t));
+        }
+
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+
+    /**
+     * Distance of p from the outline of the axis-aligned box with corners a and b.
+     */
+    private static double boxDist(double ax, double ay, double bx, double by, double px, double py) {
+        double dx = Math.max(Math.min(ax, bx) - px, px - Math.max(ax, bx));
+        double dy = Math.max(Math.min(ay, by) - py, py - Math.max(ay, by));
+
+        if(dx <= 0 && dy <= 0) {
+            // inside
+            return -Math.max(dx, dy);
+        }
+
+        return Math.hypot(Math.max(dx, 0), Math.max(dy, 0));
+    }
+
+    private static void graphics() {
+        put(Circle.get(), "crcr", o -> {
+            int c = o.arg(0), rad = o.arg(1), p = o.arg(2), t = o.arg(3), n = o.next();
+            return r -> { r[t] = Math.abs(Math.hypot(r[p] - r[c], r[p + 2] - r[c + 2]) - r[rad]); return n; };
+        });
+
+        put(Line.get(), "cccr", o -> {
+            int a = o.arg(0), b = o.arg(1), p = o.arg(2), t = o.arg(3), n = o.next();
+            return r -> { r[t] = segmentDist(r[a], r[a + 2], r[b], r[b + 2], r[p], r[p + 2], true); return n; };
+        });
+
+        put(Segment.get(), "cccr", o -> {
+            int a = o.arg(0), b = o.arg(1), p = o.arg(2), t = o.arg(3), n = o.next();
+            return r -> { r[t] = segmentDist(r[a], r[a + 2], r[b], r[b + 2], r[p], r[p + 2], false); return n; };
+        });
+
+        put(Box.get(), "cccr", o -> {
+            int a = o.arg(0), b = o.arg(1), p = o.arg(2), t = o.arg(3), n = o.next();
+            return r -> { r[t] = boxDist(r[a], r[a + 2], r[b], r[b + 2], r[p], r[p + 2]); return n; };
+        });
+    }
+
+    // === Colors ===
+
+    private static void colors() {
+        put(Int2Lab.get(), "iq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { ColorOps.int2lab((int) r[a], r, t); return n; };
+        });
+
+        put(Int2Rgb.get(), "iq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { ColorOps.int2rgb((int) r[a], r, t); return n; };
+        });
+
+        put(Lab2Int.get(), "qi", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = ColorOps.lab2int(r[a], r[a + 2], r[a + 4], r[a + 6]); return n; };
+        });
+
+        put(Rgb2Int.get(), "qi", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = ColorOps.rgb2int(r[a], r[a + 2], r[a + 4], r[a + 6]); return n; };
+        });
+
+        put(Lab2Rgb.get(), "qq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { ColorOps.lab2rgb(r, a, t); return n; };
+        });
+
+        put(Rgb2Lab.get(), "qq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { ColorOps.rgb2lab(r, a, t); return n; };
+        });
+
+        put(Over.get(), "qqq", o -> {
+            int a = o.arg(0), b = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { ColorOps.over(r, a, b, t); return n; };
+        });
+    }
+
+    // === Special ===
+
+    private static void special() {
+        put(RadLess.get(), "cr", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> {
+                double re = r[a], im = r[a + 2], limit = r[b];
+                return re * re + im * im < limit * limit ? yes : no;
+            };
+        });
+
+        put(DistLess.get(), "ccr", 2, o -> {
+            int a = o.arg(0), b = o.arg(1), c = o.arg(2), yes = o.label(0), no = o.label(1);
+            return r -> {
+                double dr = r[a] - r[b], di = r[a + 2] - r[b + 2], limit = r[c];
+                return dr * dr + di * di < limit * limit ? yes : no;
+            };
+        });
+
+        // labels: bailout-block, lake-block, neither.
+        put(RadRange.get(), "ccrr", 3, o -> {
+            int a = o.arg(0), b = o.arg(1), upper = o.arg(2), lower = o.arg(3);
+            int bailout = o.label(0), lake = o.label(1), neither = o.label(2);
+
+            return r -> {
+                double re = r[a], im = r[a + 2], limit = r[upper];
+
+                if(re * re + im * im >= limit * limit) {
+                    return bailout;
+                }
+
+                double dr = re - r[b], di = im - r[b + 2], epsilon = r[lower];
+
+                return dr * dr + di * di < epsilon * epsilon ? lake : neither;
+            };
+        });
+
+        put(Smoothen.get(), "crrr", o -> {
+            int z = o.arg(0), bailout = o.arg(1), power = o.arg(2), t = o.arg(3), n = o.next();
+            return r -> {
+                double rad = Math.hypot(r[z], r[z + 2]);
+                r[t] = 1 - Math.log(Math.log(rad) / Math.log(r[bailout])) / Math.log(r[power]);
+                return n;
+            };
+        });
+
+        put(Mandelbrot.get(), "ccc", o -> {
+            int z = o.arg(0), c = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> {
+                double re = r[z], im = r[z + 2];
+                r[t] = re * re - im * im + r[c];
+                r[t + 2] = 2 * re * im + r[c + 2];
+                return n;
+            };
+        });
+    }
+
+    // === Sys ===
+
+    private static void sys() {
+        // ++i < k
+        put(Next.get(), "ii", 2, o -> {
+            int i = o.arg(0), k = o.arg(1), yes = o.label(0), no = o.label(1);
+            return r -> {
+                double v = r[i] + 1;
+                r[i] = v;
+                return v < r[k] ? yes : no;
+            };
+        });
+
+        put(MapCoordinates.get(), "rrc", o -> {
+            int x = o.arg(0), y = o.arg(1), t = o.arg(2), n = o.next();
+            ScaleMapping m = o.mapping();
+            return r -> {
+                double px = r[x], py = r[y];
+                r[t] = m.x(px, py);
+                r[t + 2] = m.y(px, py);
+                return n;
+            };
+        });
+
+        put(MapCoordinates.get(), "cc", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            ScaleMapping m = o.mapping();
+            return r -> {
+                double px = r[a], py = r[a + 2];
+                r[t] = m.x(px, py);
+                r[t + 2] = m.y(px, py);
+                return n;
+            };
+        });
+
+        put(Mov.get(), "ii", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = r[a]; return n; };
+        });
+
+        put(Mov.get(), "rr", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = r[a]; return n; };
+        });
+
+        put(Mov.get(), "cc", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> { r[t] = r[a]; r[t + 2] = r[a + 2]; return n; };
+        });
+
+        put(Mov.get(), "qq", o -> {
+            int a = o.arg(0), t = o.arg(1), n = o.next();
+            return r -> {
+                r[t] = r[a]; r[t + 2] = r[a + 2]; r[t + 4] = r[a + 4]; r[t + 6] = r[a + 6];
+                return n;
+            };
+        });
+
+        put(Jump.get(), "i", o -> {
+            int target = o.target(o.word(0));
+            return r -> target;
+        });
+
+        // Relative to the following instruction.
+        put(JumpRel.get(), "i", o -> {
+            int a = o.arg(0), base = o.nextOffset();
+            int[] table = o.jumpTable();
+
+            return r -> {
+                int index = table[base + (int) r[a]];
+
+                if(index < 0) {
+                    throw new IllegalStateException("bad relative jump");
+                }
+
+                return index;
+            };
+        });
+    }
+
+    // === Palettes ===
+
+    private static void palettes() {
+        put(LdPalette.get(), "icq", o -> {
+            int p = o.arg(0), a = o.arg(1), t = o.arg(2), n = o.next();
+            PaletteTable[] palettes = o.palettes();
+            return r -> { palettes[(int) r[p]].lab(r[a], r[a + 2], r, t); return n; };
+        });
+
+        put(LdPalette.get(), "ici", o -> {
+            int p = o.arg(0), a = o.arg(1), t = o.arg(2), n = o.next();
+            PaletteTable[] palettes = o.palettes();
+            return r -> { r[t] = palettes[(int) r[p]].argb(r[a], r[a + 2]); return n; };
+        });
+    }
+
+    // === Uniforms ===
+
+    private static void uniforms() {
+        // the value is the second argument, the index is only needed for patching.
+        put(LdUniform.get(), "iii", o -> {
+            int a = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a]; return n; };
+        });
+
+        put(LdUniform.get(), "irr", o -> {
+            int a = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a]; return n; };
+        });
+
+        put(LdUniform.get(), "icc", o -> {
+            int a = o.arg(1), t = o.arg(2), n = o.next();
+            return r -> { r[t] = r[a]; r[t + 2] = r[a + 2]; return n; };
+        });
+    }
+}
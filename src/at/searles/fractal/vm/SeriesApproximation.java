@@ -0,0 +1,136 @@
+package at.searles.fractal.vm;
+
+/**
+ * Series approximation for perturbation. Along the reference orbit, the
+ * difference of a pixel is a polynomial in the difference of its c:
+ *
+ * d_n = A_n dc + B_n dc^2 + C_n dc^3
+ *
+ * with A_(n+1) = 2 Z_n A_n + 1, B_(n+1) = 2 Z_n B_n + A_n^2 and
+ * C_(n+1) = 2 Z_n C_n + 2 A_n B_n. As long as the truncated terms are
+ * small compared to the distance of neighbouring pixels, all pixels
+ * within a given radius around the center can start at iteration n.
+ */
+public class SeriesApproximation {
+
+    /**
+     * Allowed error of the approximation relative to the distance of
+     * neighbouring pixels.
+     */
+    private static final double TOLERANCE = 1e-3;
+
+    /**
+     * Skipped iterations must not reach the escape radius of the
+     * smallest sensible bailout.
+     */
+    private static final double MAX_RADIUS2 = 4;
+
+    /**
+     * If the orbit converges, lake checks like 'radrange' could hold
+     * within skipped iterations.
+     */
+    private static final double MIN_STEP2 = 1e-12;
+
+    public final int iterations;
+
+    private final double ar, ai, br, bi, cr, ci;
+
+    private SeriesApproximation(int iterations, double ar, double ai, double br, double bi, double cr, double ci) {
+        this.iterations = iterations;
+        this.ar = ar;
+        this.ai = ai;
+        this.br = br;
+        this.bi = bi;
+        this.cr = cr;
+        this.ci = ci;
+    }
+
+    /**
+     * @param radius maximum distance of a pixel to the center
+     * @param pixelSize distance of neighbouring pixels
+     */
+    public static SeriesApproximation compute(ReferenceOrbit orbit, double radius, double pixelSize) {
+        double[] zr = orbit.re;
+        double[] zi = orbit.im;
+
+        // A_1 = 1, B_1 = C_1 = 0
+        int n = 1;
+        double ar = 1, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+
+        double r3 = radius * radius * radius;
+
+        boolean inside = zr.length > 1 && zr[1] * zr[1] + zi[1] * zi[1] < MAX_RADIUS2;
+
+        while(inside && n + 1 < zr.length) {
+            double sr = zr[n + 1] - zr[n], si = zi[n + 1] - zi[n];
+
+            if(zr[n + 1] * zr[n + 1] + zi[n + 1] * zi[n + 1] >= MAX_RADIUS2 || sr * sr + si * si < MIN_STEP2) {
+                break;
+            }
+
+            double tr = 2 * zr[n], ti = 2 * zi[n];
+
+            double nar = tr * ar - ti * ai + 1;
+            double nai = tr * ai + ti * ar;
+
+            double nbr = tr * br - ti * bi + ar * ar - ai * ai;
+            double nbi = tr * bi + ti * br + 2 * ar * ai;
+
+            double ncr = tr * cr - ti * ci + 2 * (ar * br - ai * bi);
+            double nci = tr * ci + ti * cr + 2 * (ar * bi + ai * br);
+
+            double error = Math.hypot(ncr, nci) * r3;
+
+            if(!(error <= TOLERANCE * Math.hypot(nar, nai) * pixelSize)) {
+                // also catches overflows.
+                break;
+            }
+
+            ar = nar; ai = nai;
+            br = nbr; bi = nbi;
+            cr = ncr; ci = nci;
+            n++;
+        }
+
+        return new SeriesApproximation(n, ar, ai, br, bi, cr, ci);
+    }
+
+    /**
+     * Approximation for all pixels of an image.
+     */
+    public static SeriesApproximation forImage(ReferenceOrbit orbit, ScaleMapping mapping) {
+        DeepScale s = orbit.scale;
+
+        double nx = Math.abs(mapping.normX(0));
+        double ny = Math.abs(mapping.normY(0));
+
+        double radius = 0;
+
+        for(int sx = -1; sx <= 1; sx += 2) {
+            for(int sy = -1; sy <= 1; sy += 2) {
+                double dx = s.xx * sx * nx + s.yx * sy * ny;
+                double dy = s.xy * sx * nx + s.yy * sy * ny;
+                radius = Math.max(radius, Math.hypot(dx, dy));
+            }
+        }
+
+        double pixelSize = s.magnitude() * 2. / Math.min(mapping.width, mapping.height);
+
+        return compute(orbit, radius, pixelSize);
+    }
+
+    /**
+     * Stores d_n for dc in t[offset] and t[offset + 2].
+     */
+    void delta(double dr, double di, double[] t, int offset) {
+        // Horner: ((C dc + B) dc + A) dc
+        double xr = cr * dr - ci * di + br;
+        double xi = cr * di + ci * dr + bi;
+
+        double yr = xr * dr - xi * di + ar;
+        double yi = xr * di + xi * dr + ai;
+
+        t[offset] = yr * dr - yi * di;
+        t[offset + 2] = yr * di + yi * dr;
+    }
+}
@@ -0,0 +1,172 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.SystemInstruction;
+import at.searles.meelan.ops.analysis.Sqr;
+import at.searles.meelan.ops.arithmetics.Add;
+import at.searles.meelan.ops.arithmetics.Mul;
+import at.searles.meelan.ops.comparison.Less;
+import at.searles.meelan.ops.complex.Rad2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fuses pairs of ops that are frequent in the inner loops of the presets
+ * into a single op to save a dispatch per pair:
+ *
+ * - sqr + add (z^2 + p in mandelbrot-like functions),
+ * - mul + add (steps of polynomials created by horner),
+ * - rad2 + less (bailout tests).
+ *
+ * The first op must always be followed by the second one and the second
+ * one must not be the target of any other op. Both targets are still
+ * written, hence the fused op has the same effect as the pair.
+ */
+final class Superinstructions {
+
+    private interface Binder {
+        /**
+         * @param a slots of the first op
+         * @param b slots of the second op
+         * @param next successors of the second op, ie the next op or the labels
+         */
+        Op bind(int[] a, int[] b, int[] next);
+    }
+
+    private static final class Fusion {
+        final SystemInstruction first;
+        final String firstKey;
+        final SystemInstruction second;
+        final String secondKey;
+        final Binder binder;
+
+        Fusion(SystemInstruction first, String firstKey, SystemInstruction second, String secondKey, Binder binder) {
+            this.first = first;
+            this.firstKey = firstKey;
+            this.second = second;
+            this.secondKey = secondKey;
+            this.binder = binder;
+        }
+
+        boolean matches(Opcode a, Opcode b) {
+            return a.instruction == first && a.typeKey().equals(firstKey)
+                    && b.instruction == second && b.typeKey().equals(secondKey);
+        }
+    }
+
+    private static final List<Fusion> fusions = new ArrayList<>();
+
+    static {
+        fusions.add(new Fusion(Sqr.get(), "cc", Add.get(), "ccc", (a, b, next) -> {
+            int z = a[0], t = a[1], x = b[0], y = b[1], u = b[2], n = next[0];
+            return r -> {
+                double re = r[z], im = r[z + 2];
+                r[t] = re * re - im * im; r[t + 2] = 2 * re * im;
+                r[u] = r[x] + r[y]; r[u + 2] = r[x + 2] + r[y + 2];
+                return n;
+            };
+        }));
+
+        fusions.add(new Fusion(Mul.get(), "ccc", Add.get(), "ccc", (a, b, next) -> {
+            int p = a[0], q = a[1], t = a[2], x = b[0], y = b[1], u = b[2], n = next[0];
+            return r -> {
+                CplxOps.mul(r, p, q, t);
+                r[u] = r[x] + r[y]; r[u + 2] = r[x + 2] + r[y + 2];
+                return n;
+            };
+        }));
+
+        fusions.add(new Fusion(Mul.get(), "rrr", Add.get(), "rrr", (a, b, next) -> {
+            int p = a[0], q = a[1], t = a[2], x = b[0], y = b[1], u = b[2], n = next[0];
+            return r -> {
+                r[t] = r[p] * r[q];
+                r[u] = r[x] + r[y];
+                return n;
+            };
+        }));
+
+        fusions.add(new Fusion(Rad2.get(), "cr", Less.get(), "rr", (a, b, next) -> {
+            int z = a[0], t = a[1], x = b[0], y = b[1], yes = next[0], no = next[1];
+            return r -> {
+                double re = r[z], im = r[z + 2];
+                r[t] = re * re + im * im;
+                return r[x] < r[y] ? yes : no;
+            };
+        }));
+    }
+
+    private Superinstructions() {}
+
+    /**
+     * @return a copy of ops in which the first op of each fused pair is
+     * replaced by the superinstruction. The second op is kept so that
+     * indices do not change.
+     */
+    static Op[] apply(Op[] ops, Opcode[] opcodes, int[][] slots, int[][] successors, int[][] labelTargets) {
+        Op[] fused = ops.clone();
+
+        int[] predecessors = predecessors(successors);
+
+        if(predecessors == null) {
+            // targets of dynamic jumps are unknown.
+            return fused;
+        }
+
+        for(int index = 0; index + 1 < ops.length; ++index) {
+            int second = index + 1;
+
+            if(successors[index].length != 1 || successors[index][0] != second || predecessors[second] != 1) {
+                continue;
+            }
+
+            for(Fusion fusion : fusions) {
+                if(fusion.matches(opcodes[index], opcodes[second])) {
+                    int[] next = labelTargets[second].length > 0 ? labelTargets[second] : successors[second];
+                    fused[index] = fusion.binder.bind(slots[index], slots[second], next);
+
+                    // the second op is not fused again.
+                    index++;
+                    break;
+                }
+            }
+        }
+
+        return fused;
+    }
+
+    /**
+     * @return the number of ops that may continue with each op or null
+     * if it is not known statically. The start counts as one.
+     */
+    private static int[] predecessors(int[][] successors) {
+        int[] predecessors = new int[successors.length + 1];
+        predecessors[0] = 1;
+
+        for(int[] targets : successors) {
+            if(targets == null) {
+                return null;
+            }
+
+            for(int target : targets) {
+                predecessors[target]++;
+            }
+        }
+
+        return predecessors;
+    }
+
+    /**
+     * @return the number of superinstructions in fused.
+     */
+    static int count(Op[] ops, Op[] fused) {
+        int count = 0;
+
+        for(int i = 0; i < ops.length; ++i) {
+            if(ops[i] != fused[i]) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,117 @@
+package at.searles.fractal.vm;
+
+import at.searles.fractal.LdUniform;
+
+import java.util.Arrays;
+
+/**
+ * Values of numeric parameters that are compiled as uniforms, ie
+ * loads via LdUniform. Each uniform occupies STRIDE entries in the
+ * table, the real and the imaginary part. Integers are stored in
+ * the real part.
+ */
+public final class Uniforms {
+
+    public static final int STRIDE = 2;
+
+    private Uniforms() {}
+
+    static boolean isUniform(Opcode opcode) {
+        return opcode.instruction == LdUniform.get();
+    }
+
+    /**
+     * @return a copy of code in which the values of all uniforms are
+     * taken from uniforms or null if the code cannot be decoded.
+     */
+    public static int[] patch(int[] code, double[] uniforms) {
+        OpcodeTable table = OpcodeTable.get();
+        int[] patched = code.clone();
+
+        try {
+            for(int pc = 0; pc < code.length; ) {
+                Opcode opcode = table.get(code[pc]);
+                Semantics.Entry entry = Semantics.entry(opcode);
+
+                if(isUniform(opcode)) {
+                    if(opcode.isRegister(0) || opcode.isRegister(1)) {
+                        return null;
+                    }
+
+                    int index = code[pc + 1];
+                    write(opcode.type(1), uniforms, index, patched, pc + 2);
+                }
+
+                pc += 1 + opcode.argumentWords() + entry.labels;
+            }
+        } catch(UnsupportedInstructionException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+
+        return patched;
+    }
+
+    /**
+     * @return a copy of code in which the values of all uniforms are 0 so
+     * that codes that only differ in values of uniforms are equal. code
+     * itself if it cannot be decoded.
+     */
+    static int[] withoutValues(int[] code) {
+        OpcodeTable table = OpcodeTable.get();
+        int[] masked = code.clone();
+
+        try {
+            for(int pc = 0; pc < code.length; ) {
+                Opcode opcode = table.get(code[pc]);
+                Semantics.Entry entry = Semantics.entry(opcode);
+
+                if(isUniform(opcode) && !opcode.isRegister(1)) {
+                    int offset = pc + 1 + (opcode.isRegister(0) ? 1 : opcode.type(0).words);
+                    Arrays.fill(masked, offset, offset + opcode.type(1).words, 0);
+                }
+
+                pc += 1 + opcode.argumentWords() + entry.labels;
+            }
+        } catch(UnsupportedInstructionException | ArrayIndexOutOfBoundsException e) {
+            return code;
+        }
+
+        return masked;
+    }
+
+    private static void write(VmType type, double[] uniforms, int index, int[] code, int offset) {
+        if(type == VmType.Int) {
+            code[offset] = (int) uniforms[index * STRIDE];
+            return;
+        }
+
+        for(int c = 0; c < type.components(); ++c) {
+            long bits = Double.doubleToRawLongBits(uniforms[index * STRIDE + c]);
+            code[offset + c * VmType.STRIDE] = (int) bits;
+            code[offset + c * VmType.STRIDE + 1] = (int) (bits >>> 32);
+        }
+    }
+
+    /**
+     * Writes the values of uniforms into the constant slots of the uniform
+     * ops in image.
+     */
+    static void patch(Opcode[] opcodes, int[][] slots, double[] image, double[] uniforms) {
+        for(int i = 0; i < opcodes.length; ++i) {
+            if(!isUniform(opcodes[i])) {
+                continue;
+            }
+
+            int index = (int) image[slots[i][0]];
+            int slot = slots[i][1];
+
+            if(opcodes[i].type(1) == VmType.Int) {
+                image[slot] = (int) uniforms[index * STRIDE];
+            } else {
+                for(int c = 0; c < opcodes[i].type(1).components(); ++c) {
+                    image[slot + c * VmType.STRIDE] = uniforms[index * STRIDE + c];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package at.searles.fractal.vm;
+
+/**
+ * Thrown if the int-code contains an opcode or a signature that has
+ * no implementation in the java vm.
+ */
+public class UnsupportedInstructionException extends RuntimeException {
+    public UnsupportedInstructionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,83 @@
+package at.searles.fractal.vm;
+
+import at.searles.meelan.ops.SystemType;
+
+/**
+ * Base types of the int-code. Sizes are in words (32 bit ints) since
+ * register offsets in the int-code are word offsets. The java vm uses
+ * a double[] as register file that is indexed by these word offsets,
+ * hence components of real, cplx and quat values are 2 slots apart.
+ */
+public enum VmType {
+    Int('i', 1),
+    Real('r', 2),
+    Cplx('c', 4),
+    Quat('q', 8);
+
+    /**
+     * Distance between two double components in the register file.
+     */
+    public static final int STRIDE = 2;
+
+    public final char key;
+    public final int words;
+
+    VmType(char key, int words) {
+        this.key = key;
+        this.words = words;
+    }
+
+    public int components() {
+        return this == Int ? 1 : words / STRIDE;
+    }
+
+    /**
+     * @return null if the system type is not supported by the java vm.
+     */
+    static VmType of(SystemType type) {
+        if(SystemType.integer.equals(type) || SystemType.integerReg.equals(type)) {
+            return Int;
+        }
+
+        if(SystemType.real.equals(type) || SystemType.realReg.equals(type)) {
+            return Real;
+        }
+
+        if(SystemType.cplx.equals(type) || SystemType.cplxReg.equals(type)) {
+            return Cplx;
+        }
+
+        if(SystemType.quat.equals(type) || SystemType.quatReg.equals(type)) {
+            return Quat;
+        }
+
+        return null;
+    }
+
+    static boolean isRegister(SystemType type) {
+        return SystemType.integerReg.equals(type)
+                || SystemType.realReg.equals(type)
+                || SystemType.cplxReg.equals(type)
+                || SystemType.quatReg.equals(type);
+    }
+
+    /**
+     * Reads a constant of this type from the int-code and stores it
+     * in the register file. Reals are stored as two words, low word first.
+     */
+    void load(int[] code, int offset, double[] registers, int slot) {
+        if(this == Int) {
+            registers[slot] = code[offset];
+            return;
+        }
+
+        for(int i = 0; i < components(); ++i) {
+            registers[slot + i * STRIDE] = realAt(code, offset + i * STRIDE);
+        }
+    }
+
+    static double realAt(int[] code, int offset) {
+        long bits = (code[offset] & 0xffffffffL) | ((long) code[offset + 1] << 32);
+        return Double.longBitsToDouble(bits);
+    }
+}
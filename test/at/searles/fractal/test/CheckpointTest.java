@@ -0,0 +1,98 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.render.CheckpointedRenderer;
+import at.searles.fractal.render.IntBitmap;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Interpreter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class CheckpointTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 280;
+
+    @Test
+    public void testResumeLoadsStoredTiles() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        Path directory = Files.createTempDirectory("checkpoint");
+
+        try {
+            AtomicInteger evaluated = new AtomicInteger();
+
+            IntBitmap first = new IntBitmap(WIDTH, HEIGHT);
+            render(fractal, directory, evaluated, first);
+
+            Assert.assertEquals(WIDTH * HEIGHT, evaluated.get());
+
+            // as if the first render was killed before these tiles were stored.
+            Files.delete(directory.resolve("tile-256-0.argb"));
+            Files.delete(directory.resolve("tile-0-256.argb"));
+
+            evaluated.set(0);
+
+            IntBitmap second = new IntBitmap(WIDTH, HEIGHT);
+            render(fractal, directory, evaluated, second);
+
+            // only the missing tiles are rendered, all others are read.
+            Assert.assertEquals((WIDTH - 256) * 256 + 256 * (HEIGHT - 256), evaluated.get());
+            Assert.assertArrayEquals(first.pixels(), second.pixels());
+
+            evaluated.set(0);
+
+            IntBitmap third = new IntBitmap(WIDTH, HEIGHT);
+            render(fractal, directory, evaluated, third);
+
+            Assert.assertEquals(0, evaluated.get());
+            Assert.assertArrayEquals(first.pixels(), third.pixels());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Renders with interpreters that count the evaluated pixels.
+     */
+    private static void render(Fractal fractal, Path directory, AtomicInteger evaluated, IntBitmap bitmap) throws IOException {
+        ExecutorFactory counting = program -> {
+            Interpreter interpreter = new Interpreter(program);
+
+            return (x, y) -> {
+                evaluated.incrementAndGet();
+                return interpreter.execute(x, y);
+            };
+        };
+
+        new CheckpointedRenderer(fractal, WIDTH, HEIGHT, directory, ForkJoinPool.commonPool(), counting).render(bitmap);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefuseDifferentFractal() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        Fractal other = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Lake.fv"));
+
+        Path directory = Files.createTempDirectory("checkpoint");
+
+        try {
+            new CheckpointedRenderer(fractal, WIDTH, HEIGHT, directory).render(new IntBitmap(WIDTH, HEIGHT));
+            new CheckpointedRenderer(other, WIDTH, HEIGHT, directory).render(new IntBitmap(WIDTH, HEIGHT));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
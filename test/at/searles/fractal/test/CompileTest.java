@@ -1,6 +1,8 @@
 package at.searles.fractal.test;
 
+import at.searles.fractal.CompileService;
 import at.searles.fractal.Fractal;
+import at.searles.fractal.ParserInstance;
 import at.searles.fractal.data.FractalData;
 import at.searles.meelan.MeelanException;
 import org.junit.Assert;
@@ -9,8 +11,14 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class CompileTest {
 
@@ -22,6 +30,28 @@ public class CompileTest {
         this.builder = new FractalData.Builder();
     }
 
+    @Test
+    public void testParsedSourcesAreShared() throws IOException {
+        String source = Utils.readResourceFile("assets/sources/v3/Default.fv");
+
+        FractalData first = new FractalData.Builder().setSource(source).commit();
+
+        long hits = ParserInstance.get().cacheHits();
+
+        FractalData second = new FractalData.Builder().setSource(source).commit();
+
+        Assert.assertSame(first.ast(), second.ast());
+        Assert.assertSame(first.externDecls(), second.externDecls());
+        Assert.assertEquals(hits + 1, ParserInstance.get().cacheHits());
+    }
+
+    @Test
+    public void testParsedExprsAreShared() {
+        Assert.assertSame(
+                ParserInstance.get().parseExpr("mandelbrot(z, p)"),
+                ParserInstance.get().parseExpr("mandelbrot(z, p)"));
+    }
+
     @Test
     public void testAdditionOfThree() throws IOException {
         withSourceFile("assets/sources/v3/ThreeBug.fv");
@@ -68,6 +98,39 @@ public class CompileTest {
         }
     }
 
+    @Test
+    public void testConcurrentCompilation() throws IOException, InterruptedException, ExecutionException {
+        File[] files = new File("test/resources/assets/sources/v3").listFiles();
+
+        List<String> sources = new ArrayList<>();
+
+        // every source several times to have concurrent compilations of the same ast.
+        for(int i = 0; i < 4; ++i) {
+            for(File file : files) {
+                sources.add(Utils.readFile(file));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            CompileService service = new CompileService(pool, false);
+
+            List<CompletableFuture<Fractal>> futures = new ArrayList<>();
+
+            for(String source : sources) {
+                futures.add(service.compile(source));
+            }
+
+            for(int i = 0; i < sources.size(); ++i) {
+                int[] expected = Fractal.fromData(new FractalData.Builder().setSource(sources.get(i)).commit()).code();
+                Assert.assertTrue(Arrays.equals(expected, futures.get(i).get().code()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private void actCompileFractal() {
         fractal = Fractal.fromData(builder.commit());
     }
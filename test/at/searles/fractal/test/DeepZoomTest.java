@@ -0,0 +1,218 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.data.FractalData;
+import at.searles.fractal.render.IntBitmap;
+import at.searles.fractal.render.TiledRenderer;
+import at.searles.fractal.vm.DeepScale;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.PerturbationExecutor;
+import at.searles.fractal.vm.Program;
+import at.searles.fractal.vm.ReferenceOrbit;
+import at.searles.fractal.vm.ScaleMapping;
+import at.searles.fractal.vm.SeriesApproximation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.ForkJoinPool;
+
+public class DeepZoomTest {
+
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 90;
+
+    private static final int DEEP_MAXDEPTH = 20000;
+
+    /**
+     * color is the number of iterations.
+     */
+    private static final String ITERATIONS_SOURCE = "var x int, y int, color int; " +
+            "var c cplx = map(x, y), z cplx = 0; var i int = 0; " +
+            "while { z = mandelbrot(z, c); { false } if rad z > 2 else { next(i, " + DEEP_MAXDEPTH + ") } }; " +
+            "color = i";
+
+    private static final DeepScale DEEP_SCALE = new DeepScale(
+            new BigDecimal("-0.743643887037158704752191506114774"),
+            new BigDecimal("0.131825904205311970493132056385139"),
+            1e-22, 0, 0, 1e-22);
+
+    @Test
+    public void testShallowZoomEqualsInterpreted() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        Program program = Program.load(fractal, WIDTH, HEIGHT);
+
+        Assert.assertTrue(PerturbationExecutor.isApplicable(program));
+
+        ReferenceOrbit orbit = ReferenceOrbit.compute(DeepScale.fromScale(fractal.scale()), 1024);
+        PerturbationExecutor deep = new PerturbationExecutor(program, orbit);
+        Interpreter interpreter = new Interpreter(program);
+
+        int equal = 0;
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                if(deep.execute(x, y) == interpreter.execute(x, y)) {
+                    equal++;
+                }
+            }
+        }
+
+        // Perturbation computes Z_n + d_n instead of z_n, hence the last bits
+        // of z differ. Default colors smoothly using the final value of z, so
+        // a pixel changes if this moves a color channel across a rounding
+        // boundary or, close to the set, changes the escape iteration.
+        // Exact agreement is checked in testDeepZoomEqualsReference.
+        Assert.assertTrue(equal > WIDTH * HEIGHT * 95 / 100);
+    }
+
+    @Test
+    public void testDeepZoomEqualsReference() {
+        Program program = Program.load(Fractal.fromSource(ITERATIONS_SOURCE), WIDTH, HEIGHT);
+
+        Assert.assertTrue(PerturbationExecutor.isApplicable(program));
+
+        ReferenceOrbit orbit = ReferenceOrbit.compute(DEEP_SCALE, DEEP_MAXDEPTH);
+
+        Executor plain = new PerturbationExecutor(program, orbit);
+        Executor series = PerturbationExecutor.factory(orbit, program.mapping()).executor(program);
+
+        int[][] pixels = {{0, 0}, {WIDTH - 1, 0}, {WIDTH / 2, HEIGHT / 2}, {0, HEIGHT - 1}, {WIDTH - 1, HEIGHT - 1}, {17, 53}};
+
+        for(int[] pixel : pixels) {
+            int expected = referenceIterations(DEEP_SCALE, program.mapping(), pixel[0], pixel[1]);
+
+            Assert.assertEquals(expected, plain.execute(pixel[0], pixel[1]));
+            Assert.assertEquals(expected, series.execute(pixel[0], pixel[1]));
+        }
+    }
+
+    @Test
+    public void testSeriesRenderEqualsPerturbation() {
+        Program program = Program.load(Fractal.fromSource(ITERATIONS_SOURCE), WIDTH, HEIGHT);
+        ReferenceOrbit orbit = ReferenceOrbit.compute(DEEP_SCALE, DEEP_MAXDEPTH);
+
+        Assert.assertTrue(SeriesApproximation.forImage(orbit, program.mapping()).iterations > 1);
+
+        IntBitmap series = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program, ForkJoinPool.commonPool(),
+                PerturbationExecutor.factory(orbit, program.mapping())).render(series);
+
+        IntBitmap plain = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program, ForkJoinPool.commonPool(),
+                p -> new PerturbationExecutor(p, orbit)).render(plain);
+
+        int differing = 0;
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                int delta = Math.abs(series.pixel(x, y) - plain.pixel(x, y));
+
+                // the error of the series is below 1/1000 of a pixel, hence
+                // only pixels next to a change of the iteration count may differ.
+                Assert.assertTrue(delta <= 1);
+
+                if(delta != 0) {
+                    differing++;
+                }
+            }
+        }
+
+        Assert.assertTrue(differing < WIDTH * HEIGHT / 100);
+    }
+
+    @Test
+    public void testSeriesIsNotUsedForOrbitTraps() throws IOException {
+        // traps accumulate over all iterations, skipping them changes the colors.
+        FractalData.Builder builder = new FractalData.Builder()
+                .setSource(Utils.readResourceFile("assets/sources/v3/OrbitTrap.fv"));
+        builder.addParameter("maxdepth", DEEP_MAXDEPTH);
+
+        Program program = Program.load(Fractal.fromData(builder.commit()), WIDTH, HEIGHT);
+
+        Assert.assertTrue(PerturbationExecutor.isApplicable(program));
+
+        ReferenceOrbit orbit = ReferenceOrbit.compute(DEEP_SCALE, DEEP_MAXDEPTH);
+
+        Assert.assertTrue(SeriesApproximation.forImage(orbit, program.mapping()).iterations > 1);
+
+        Executor plain = new PerturbationExecutor(program, orbit);
+        Executor series = PerturbationExecutor.factory(orbit, program.mapping()).executor(program);
+
+        for(int y = 0; y < HEIGHT; y += 6) {
+            for(int x = 0; x < WIDTH; x += 6) {
+                Assert.assertEquals(plain.execute(x, y), series.execute(x, y));
+            }
+        }
+    }
+
+    /**
+     * Value of color in testDeepZoomEqualsReference computed with BigDecimal.
+     */
+    private static int referenceIterations(DeepScale scale, ScaleMapping mapping, int x, int y) {
+        MathContext mc = new MathContext(scale.precision());
+
+        // same rounding of the offset as in 'map'.
+        double nx = mapping.normX(x), ny = mapping.normY(y);
+        BigDecimal cr = scale.cx.add(new BigDecimal(scale.xx * nx + scale.yx * ny), mc);
+        BigDecimal ci = scale.cy.add(new BigDecimal(scale.xy * nx + scale.yy * ny), mc);
+
+        BigDecimal zr = BigDecimal.ZERO, zi = BigDecimal.ZERO;
+        BigDecimal two = BigDecimal.valueOf(2), four = BigDecimal.valueOf(4);
+
+        for(int n = 1; ; ++n) {
+            BigDecimal nr = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+            zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+            zr = nr;
+
+            if(zr.multiply(zr, mc).add(zi.multiply(zi, mc), mc).compareTo(four) > 0) {
+                return n - 1;
+            }
+
+            if(n == DEEP_MAXDEPTH) {
+                return n;
+            }
+        }
+    }
+
+    @Test
+    public void testReferenceOrbitOfInteriorPoint() {
+        DeepScale scale = new DeepScale(new BigDecimal("-0.1"), new BigDecimal("0.1"), 1e-100, 0, 0, 1e-100);
+        ReferenceOrbit orbit = ReferenceOrbit.compute(scale, 500);
+
+        Assert.assertEquals(501, orbit.length());
+        Assert.assertTrue(scale.precision() > 100);
+    }
+
+    @Test
+    public void testReferenceOrbitOfEscapingPoint() {
+        DeepScale scale = new DeepScale(BigDecimal.ONE, BigDecimal.ONE, 1e-50, 0, 0, 1e-50);
+        ReferenceOrbit orbit = ReferenceOrbit.compute(scale, 500);
+
+        Assert.assertTrue(orbit.length() < 10);
+    }
+
+    @Test
+    public void testSeriesApproximationSkipsIterations() {
+        DeepScale scale = new DeepScale(
+                new BigDecimal("-0.743643887037158704752191506114774"),
+                new BigDecimal("0.131825904205311970493132056385139"),
+                1e-25, 0, 0, 1e-25);
+
+        ReferenceOrbit orbit = ReferenceOrbit.compute(scale, 20000);
+        SeriesApproximation series = SeriesApproximation.compute(orbit, 1.5e-25, 1e-27);
+
+        Assert.assertTrue(series.iterations > 1000);
+    }
+
+    @Test
+    public void testSeriesApproximationOfEscapingCenter() {
+        DeepScale scale = new DeepScale(BigDecimal.ONE, BigDecimal.ONE, 1e-50, 0, 0, 1e-50);
+        ReferenceOrbit orbit = ReferenceOrbit.compute(scale, 500);
+
+        Assert.assertEquals(1, SeriesApproximation.compute(orbit, 1e-50, 1e-52).iterations);
+    }
+}
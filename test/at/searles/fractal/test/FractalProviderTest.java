@@ -67,6 +67,26 @@ public class FractalProviderTest {
         Assert.assertEquals("var b = 2;", provider.getParameterValue(Fractal.SOURCE_LABEL, ids.get(1)));
     }
 
+    @Test
+    public void testUniformProvider() {
+        provider = new FractalProvider(true);
+
+        int id = provider.addFractal(new FractalData.Builder()
+                .setSource("extern a real = 1; extern b bool = false; var x = a if b else 2;").commit());
+
+        int length = provider.getFractal(id).code().length;
+
+        Assert.assertTrue(provider.getFractal(id).isUniform("a"));
+        Assert.assertTrue(provider.getFractal(id).isUniform("b"));
+
+        provider.setParameterValue("a", id, 3.0);
+        provider.setParameterValue("b", id, true);
+
+        // patched, not compiled again.
+        Assert.assertEquals(length, provider.getFractal(id).code().length);
+        Assert.assertEquals(3.0, provider.getParameterValue("a", id));
+    }
+
     @Test
     public void testOrderExterns() {
         withSources("extern a expr = \"0\"; extern c expr = \"0\"; var x = a + b + c",
@@ -1,12 +1,22 @@
 package at.searles.fractal.test;
 
 import at.searles.fractal.Fractal;
+import at.searles.fractal.FractviewInstructionSet;
+import at.searles.fractal.LdUniform;
 import at.searles.fractal.data.FractalData;
 import at.searles.fractal.data.ParameterType;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.Program;
 import at.searles.math.Scale;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Tests for the central fractal class
  */
@@ -40,6 +50,52 @@ public class FractalTest {
         Assert.assertEquals(2, fractal.code()[1]);
     }
 
+    @Test
+    public void testUniformUpdate() {
+        FractalData data = new FractalData.Builder().setSource("extern a int = 1; var x = a;").commit();
+        Fractal fractal = Fractal.fromData(data, true);
+
+        Assert.assertTrue(fractal.isUniform("a"));
+
+        Program program = Program.load(fractal, 1, 1);
+        int length = fractal.code().length;
+
+        fractal.updateValue("a", 2);
+
+        Assert.assertEquals(length, fractal.code().length);
+        Assert.assertFalse(fractal.getParameter("a").isDefault);
+
+        Interpreter recompiled = new Interpreter(Program.load(fractal, 1, 1));
+        recompiled.execute(0, 0);
+        Assert.assertEquals(2, recompiled.registers()[0], 0);
+
+        Interpreter patched = new Interpreter(program.withUniforms(fractal.uniforms()));
+        patched.execute(0, 0);
+        Assert.assertEquals(2, patched.registers()[0], 0);
+    }
+
+    @Test
+    public void testBoolUniformUpdate() {
+        FractalData data = new FractalData.Builder().setSource("extern b bool = false; var x int = 1 if b else 2;").commit();
+        Fractal fractal = Fractal.fromData(data, true);
+
+        Assert.assertTrue(fractal.isUniform("b"));
+
+        Program program = Program.load(fractal, 1, 1);
+
+        fractal.updateValue("b", true);
+
+        Interpreter patched = new Interpreter(program.withUniforms(fractal.uniforms()));
+        patched.execute(0, 0);
+        Assert.assertEquals(1, patched.registers()[0], 0);
+    }
+
+    @Test
+    public void testLdUniformIsOnlyInJavaVm() {
+        Assert.assertFalse(FractviewInstructionSet.get().systemInstructions().containsKey(LdUniform.get()));
+        Assert.assertTrue(FractviewInstructionSet.javaVm().systemInstructions().containsKey(LdUniform.get()));
+    }
+
     @Test
     public void testResetParameter() {
         Fractal fractal = fromSource("extern a int = 1; var x = a;", "a", ParameterType.Int, 2);
@@ -49,6 +105,86 @@ public class FractalTest {
         Assert.assertEquals(1, fractal.code()[1]);
     }
 
+    @Test
+    public void testAsyncUpdatesAreCoalesced() {
+        Fractal fractal = fromSource("extern a int = 1; var x = a;");
+
+        List<Fractal> notified = new ArrayList<>();
+        fractal.addListener(notified::add);
+
+        Deque<Runnable> tasks = new ArrayDeque<>();
+
+        CompletableFuture<Boolean> first = fractal.updateValueAsync("a", 2, tasks::add, tasks::add);
+        CompletableFuture<Boolean> second = fractal.updateValueAsync("a", 3, tasks::add, tasks::add);
+
+        // superseded updates are not errors.
+        Assert.assertFalse(first.getNow(true));
+        Assert.assertFalse(first.isCompletedExceptionally());
+
+        while(!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        Assert.assertTrue(second.join());
+        Assert.assertEquals(3, fractal.code()[1]);
+        Assert.assertEquals(1, notified.size());
+    }
+
+    @Test
+    public void testAsyncUpdatesUseSynchronousPaths() {
+        FractalData data = new FractalData.Builder()
+                .setSource("extern a int = 1; extern b expr = \"2\"; extern c expr = \"3\"; var x = a; var y = b + c;")
+                .commit();
+
+        Fractal fractal = Fractal.fromData(data, true);
+
+        Deque<Runnable> tasks = new ArrayDeque<>();
+
+        // uniforms are patched without a compilation.
+        Assert.assertTrue(fractal.updateValueAsync("a", 2, tasks::add, tasks::add).join());
+        Assert.assertTrue(tasks.isEmpty());
+        Assert.assertEquals(2, fractal.getParameter("a").value);
+
+        // other parameters are compiled.
+        CompletableFuture<Boolean> update = fractal.updateValueAsync("b", "4", tasks::add, tasks::add);
+
+        while(!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        Assert.assertTrue(update.join());
+        Assert.assertEquals("4", fractal.getParameter("b").value);
+    }
+
+    @Test
+    public void testAsyncUpdateIsAppliedInOwner() {
+        Fractal fractal = fromSource("extern a int = 1; var x = a;");
+
+        List<Fractal> notified = new ArrayList<>();
+        fractal.addListener(notified::add);
+
+        Deque<Runnable> workers = new ArrayDeque<>();
+        Deque<Runnable> owner = new ArrayDeque<>();
+
+        CompletableFuture<Boolean> update = fractal.updateValueAsync("a", 2, workers::add, owner::add);
+
+        while(!workers.isEmpty()) {
+            workers.poll().run();
+        }
+
+        // compiled, but not yet applied.
+        Assert.assertEquals(1, fractal.code()[1]);
+        Assert.assertTrue(notified.isEmpty());
+
+        while(!owner.isEmpty()) {
+            owner.poll().run();
+        }
+
+        Assert.assertTrue(update.join());
+        Assert.assertEquals(2, fractal.code()[1]);
+        Assert.assertEquals(1, notified.size());
+    }
+
     @Test
     public void testAddExternParameter() {
         Fractal fractal = fromSource("extern a expr = \"1\"; var x = a;");
@@ -0,0 +1,144 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.Program;
+import at.searles.fractal.vm.ScaleMapping;
+import at.searles.math.Scale;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class InteriorDetectionTest {
+
+    private static final int MAXDEPTH = 5000;
+
+    private static final String BARE_LOOP = "var x int, y int, color int; " +
+            "var c cplx = map(x, y), z cplx = 0; var i int = 0; " +
+            "while { z = mandelbrot(z, c); radless(z, 2) and next(i, " + MAXDEPTH + ") }; " +
+            "color = i";
+
+    private static final String ZLAST_LOOP = "var x int, y int, color int; " +
+            "var c cplx = map(x, y), zlast cplx = 0, z cplx = 0, znext cplx = 0; var i int = 0; " +
+            "while { znext = mandelbrot(z, c); radless(znext, 2) and next(i, " + MAXDEPTH + ") } " +
+            "do { zlast = z; z = znext }; " +
+            "color = i";
+
+    private static final String TRAP_LOOP = "var x int, y int, color int; " +
+            "var c cplx = map(x, y), z cplx = 0, trap real = 10; var i int = 0; " +
+            "while { z = mandelbrot(z, c); trap = min(trap, rad(z - 1)); radless(z, 2) and next(i, " + MAXDEPTH + ") }; " +
+            "color = i";
+
+    private static final String COUNTER_LOOP = "var x int, y int, color int; " +
+            "var c cplx = map(x, y), z cplx = 0; var i int = 0; " +
+            "while { z = mandelbrot(z, c); (i < 100 or radless(z, 2)) and next(i, " + MAXDEPTH + ") }; " +
+            "color = i";
+
+    @Test
+    public void testPresetsAreUnchanged() throws IOException {
+        File dir = new File("test/resources/assets/sources/v3");
+
+        for(File file : dir.listFiles()) {
+            Program plain = Program.load(Fractal.fromSource(Utils.readFile(file)), 48, 36);
+            Program detecting = plain.withInteriorDetection(true);
+
+            Interpreter expected = new Interpreter(plain);
+            Interpreter actual = new Interpreter(detecting);
+
+            for(int y = 0; y < 36; y += 5) {
+                for(int x = 0; x < 48; x += 5) {
+                    Assert.assertEquals(file.getName(), expected.execute(x, y), actual.execute(x, y));
+                    assertSameRegisters(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCardioid() {
+        Assert.assertEquals(MAXDEPTH, execute(BARE_LOOP, -0.1, 0.1));
+    }
+
+    @Test
+    public void testPeriod2Bulb() {
+        Assert.assertEquals(MAXDEPTH, execute(BARE_LOOP, -1, 0.1));
+    }
+
+    @Test
+    public void testPeriod3Bulb() {
+        // outside of cardioid and bulb, detection starts after a warm-up.
+        Assert.assertEquals(MAXDEPTH, execute(BARE_LOOP, -0.122, 0.745));
+    }
+
+    @Test
+    public void testEscapingPixel() {
+        Assert.assertTrue(execute(BARE_LOOP, 0.5, 0.5) < MAXDEPTH);
+    }
+
+    @Test
+    public void testLoopWithZlast() {
+        // zlast is part of the state, it repeats one iteration after z.
+        Assert.assertEquals(MAXDEPTH, execute(ZLAST_LOOP, -0.1, 0.1));
+        Assert.assertEquals(MAXDEPTH, execute(ZLAST_LOOP, -1, 0.1));
+        Assert.assertEquals(MAXDEPTH, execute(ZLAST_LOOP, -0.122, 0.745));
+    }
+
+    @Test
+    public void testLoopWithTrap() {
+        // the trap stops changing after one period.
+        Assert.assertEquals(MAXDEPTH, execute(TRAP_LOOP, -0.1, 0.1));
+        Assert.assertEquals(MAXDEPTH, execute(TRAP_LOOP, -1, 0.1));
+        Assert.assertTrue(execute(TRAP_LOOP, 0.5, 0.5) < MAXDEPTH);
+    }
+
+    @Test
+    public void testLoopThatReadsTheCounter() {
+        Program program = Program.load(Fractal.fromSource(COUNTER_LOOP), 1, 1);
+        Assert.assertEquals(0, program.withInteriorDetection(true).interiorLoopCount());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Program program = Program.load(Fractal.fromSource(BARE_LOOP), 1, 1);
+
+        Assert.assertEquals(0, program.interiorLoopCount());
+        Assert.assertEquals(1, program.withInteriorDetection(true).interiorLoopCount());
+    }
+
+    /**
+     * Executes source for the single point cx/cy with and without interior
+     * detection and checks that all registers are the same.
+     *
+     * @return the color
+     */
+    private static int execute(String source, double cx, double cy) {
+        ScaleMapping mapping = new ScaleMapping(new Scale(1, 0, 0, 1, cx, cy), 1, 1);
+
+        Program plain = Program.load(Fractal.fromSource(source), 1, 1).withMapping(mapping);
+        Program detecting = plain.withInteriorDetection(true);
+
+        Assert.assertEquals(1, detecting.interiorLoopCount());
+
+        Interpreter expected = new Interpreter(plain);
+        Interpreter actual = new Interpreter(detecting);
+
+        int color = expected.execute(0, 0);
+
+        Assert.assertEquals(color, actual.execute(0, 0));
+        assertSameRegisters(expected, actual);
+
+        return color;
+    }
+
+    /**
+     * Compares the loop counter, z and all other registers. The scratch
+     * slots of the detection are appended to the register file.
+     */
+    private static void assertSameRegisters(Interpreter expected, Interpreter actual) {
+        double[] registers = expected.registers();
+        Assert.assertArrayEquals(registers, Arrays.copyOf(actual.registers(), registers.length), 0);
+    }
+}
@@ -0,0 +1,191 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.vm.CodeOptimizer;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.Profiler;
+import at.searles.fractal.vm.Program;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class InterpreterTest {
+
+    private Interpreter interpreter;
+
+    @Test
+    public void testAddition() {
+        withSource("var x int, y int, color int; color = x + y");
+
+        Assert.assertEquals(7, interpreter.execute(3, 4));
+    }
+
+    @Test
+    public void testLoop() {
+        withSource("var x int, y int, color int; var i int = 0; while next(i, 10); color = i");
+
+        Assert.assertEquals(10, interpreter.execute(0, 0));
+    }
+
+    @Test
+    public void testBranch() {
+        withSource("var x int, y int, color int; color = 1 if x < y else 2");
+
+        Assert.assertEquals(1, interpreter.execute(0, 1));
+        Assert.assertEquals(2, interpreter.execute(1, 0));
+    }
+
+    @Test
+    public void testOpaqueColor() throws IOException {
+        withSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+
+        int color = interpreter.execute(32, 32);
+
+        Assert.assertEquals(0xff, color >>> 24);
+    }
+
+    @Test
+    public void testV3() throws IOException {
+        File dir = new File("test/resources/assets/sources/v3");
+
+        for(File file : dir.listFiles()) {
+            withSource(Utils.readFile(file));
+
+            // must not throw
+            interpreter.execute(0, 0);
+            interpreter.execute(63, 63);
+        }
+    }
+
+    @Test
+    public void testProfiler() {
+        withSource("var x int, y int, color int; var i int = 0; while next(i, 10); color = i");
+
+        Profiler profiler = new Profiler(interpreter.program());
+        Executor executor = profiler.executor();
+
+        Assert.assertEquals(10, executor.execute(0, 0));
+
+        long nexts = 0;
+
+        for(Profiler.Entry entry : profiler.byOpcode()) {
+            if(entry.name.startsWith("next/")) {
+                nexts += entry.count;
+            }
+        }
+
+        Assert.assertEquals(10, nexts);
+    }
+
+    @Test
+    public void testProfilerNames() {
+        withSource("extern p palette = [[#000, #fff]]; var x int, y int, color int; color = lab2int p(x : y)");
+
+        Profiler profiler = new Profiler(interpreter.program());
+        profiler.executor().execute(0, 0);
+
+        boolean palette = false;
+
+        for(Profiler.Entry entry : profiler.byOpcode()) {
+            // names of the instruction set, not of the java classes.
+            Assert.assertFalse(entry.name, entry.name.startsWith("ldpalette/"));
+            palette |= entry.name.startsWith("palette_lab/");
+        }
+
+        Assert.assertTrue(palette);
+    }
+
+    @Test
+    public void testOptimizedCodeIsEquivalent() throws IOException {
+        CodeOptimizer none = withoutPasses();
+
+        File dir = new File("test/resources/assets/sources/v3");
+
+        for(File file : dir.listFiles()) {
+            String source = Utils.readFile(file);
+
+            Fractal optimized = Fractal.fromSource(source);
+            Fractal plain = Fractal.fromSource(source, none);
+
+            Assert.assertTrue(optimized.code().length <= plain.code().length);
+
+            Interpreter expected = new Interpreter(Program.load(plain, 64, 64));
+            Interpreter actual = new Interpreter(Program.load(optimized, 64, 64));
+
+            for(int y = 0; y < 64; y += 7) {
+                for(int x = 0; x < 64; x += 7) {
+                    Assert.assertEquals(file.getName(), expected.execute(x, y), actual.execute(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCodeSizeReport() throws IOException {
+        CodeOptimizer none = withoutPasses();
+
+        File dir = new File("test/resources/assets/sources/v3");
+
+        int totalRemoved = 0;
+
+        for(File file : dir.listFiles()) {
+            String source = Utils.readFile(file);
+
+            int[] plain = Fractal.fromSource(source, none).code();
+            CodeOptimizer.Result result = CodeOptimizer.get().optimize(plain);
+
+            int removed = 0;
+
+            for(int words : result.removedWords.values()) {
+                removed += words;
+            }
+
+            Assert.assertEquals(file.getName(), plain.length, result.originalSize);
+            Assert.assertEquals(file.getName(), plain.length - result.code.length, removed);
+
+            // 'select' uses relative jumps whose targets are not known statically.
+            Assert.assertEquals(file.getName(), !source.contains("select("), result.isDecoded);
+
+            totalRemoved += removed;
+        }
+
+        Assert.assertTrue(totalRemoved > 0);
+    }
+
+    private static CodeOptimizer withoutPasses() {
+        CodeOptimizer optimizer = CodeOptimizer.get();
+        return optimizer.without(optimizer.passNames().toArray(new String[0]));
+    }
+
+    @Test
+    public void testSuperinstructions() throws IOException {
+        File dir = new File("test/resources/assets/sources/v3");
+
+        int superinstructions = 0;
+
+        for(File file : dir.listFiles()) {
+            Program program = Program.load(Fractal.fromSource(Utils.readFile(file)), 64, 64);
+            superinstructions += program.superinstructionCount();
+
+            // the profiler executes the ops without fusion.
+            Interpreter fused = new Interpreter(program);
+            Executor plain = new Profiler(program).executor();
+
+            for(int y = 0; y < 64; y += 7) {
+                for(int x = 0; x < 64; x += 7) {
+                    Assert.assertEquals(file.getName(), plain.execute(x, y), fused.execute(x, y));
+                }
+            }
+        }
+
+        Assert.assertTrue(superinstructions > 0);
+    }
+
+    private void withSource(String source) {
+        Fractal fractal = Fractal.fromSource(source);
+        interpreter = new Interpreter(Program.load(fractal, 64, 64));
+    }
+}
@@ -0,0 +1,83 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.data.FractalData;
+import at.searles.fractal.vm.Executor;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.Jit;
+import at.searles.fractal.vm.Program;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class JitTest {
+
+    private static final int SIZE = 48;
+
+    @Test
+    public void testCompiledEqualsInterpreted() throws IOException {
+        File dir = new File("test/resources/assets/sources/v3");
+
+        int compiledCount = 0;
+
+        for(File file : dir.listFiles()) {
+            Program program = Program.load(Fractal.fromSource(Utils.readFile(file)), SIZE, SIZE);
+
+            Executor compiled = Jit.executor(program);
+            Interpreter interpreted = new Interpreter(program);
+
+            if(Jit.isCompiled(compiled)) {
+                compiledCount++;
+            }
+
+            for(int y = 0; y < SIZE; y += 3) {
+                for(int x = 0; x < SIZE; x += 3) {
+                    Assert.assertEquals(file.toString(), interpreted.execute(x, y), compiled.execute(x, y));
+                }
+            }
+        }
+
+        // otherwise the comparison above only compares interpreters.
+        Assert.assertTrue(compiledCount > 0);
+    }
+
+    @Test
+    public void testSmallProgramIsCompiled() {
+        Fractal fractal = Fractal.fromSource("var x int, y int, color int; var i int = 0; while next(i, 10); color = i + x");
+        Executor executor = Jit.executor(Program.load(fractal, SIZE, SIZE));
+
+        Assert.assertTrue(Jit.isCompiled(executor));
+        Assert.assertEquals(13, executor.execute(3, 0));
+    }
+
+    @Test
+    public void testClassIsCached() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+
+        Program p0 = Program.load(fractal, SIZE, SIZE);
+        Program p1 = Program.load(fractal, 2 * SIZE, 2 * SIZE);
+
+        Assert.assertSame(Jit.compile(p0).getClass(), Jit.compile(p1).getClass());
+    }
+
+    @Test
+    public void testClassIsSharedAmongUniformValues() {
+        FractalData data = new FractalData.Builder()
+                .setSource("extern a int = 1; var x int, y int, color int; var i int = 0; while next(i, 10); color = i + a")
+                .commit();
+
+        Fractal fractal = Fractal.fromData(data, true);
+        Program program = Program.load(fractal, SIZE, SIZE);
+
+        fractal.updateValue("a", 5);
+        Program patched = program.withUniforms(fractal.uniforms());
+
+        Executor executor = Jit.executor(patched);
+
+        Assert.assertTrue(Jit.isCompiled(executor));
+        Assert.assertEquals(15, executor.execute(0, 0));
+        Assert.assertSame(Jit.compile(program).getClass(), Jit.compile(patched).getClass());
+    }
+}
@@ -1,15 +1,22 @@
 package at.searles.fractal.test;
 
+import at.searles.fractal.Fractal;
 import at.searles.fractal.data.FractalData;
 import at.searles.fractal.entries.FavoriteEntry;
+import at.searles.fractal.gson.FavoritesImporter;
 import at.searles.fractal.gson.Serializers;
 import at.searles.math.color.Palette;
+import at.searles.meelan.MeelanException;
 import at.searles.meelan.ops.numeric.Fract;
 import org.junit.Assert;
 import org.junit.Test;
 import sun.awt.AWTAccessor;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class JsonTest {
 
@@ -54,6 +61,53 @@ public class JsonTest {
         });
     }
 
+    @Test
+    public void testParallelImport() throws IOException {
+        withJsonFile("backup-2017-08-25.txt");
+
+        parseCollection();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            FavoritesImporter.Result result = new FavoritesImporter(pool).load(new StringReader(json));
+
+            Assert.assertEquals(collection.size(), result.entries.size() + result.failures.size());
+            Assert.assertEquals(result.entries.size(), result.fractals.size());
+
+            // order of the collection is preserved.
+            Iterator<String> keys = collection.keySet().iterator();
+
+            for(String key : result.entries.keySet()) {
+                String expected = keys.next();
+
+                while(result.failures.containsKey(expected)) {
+                    expected = keys.next();
+                }
+
+                Assert.assertEquals(expected, key);
+            }
+
+            // same outcome as a sequential import.
+            for(Map.Entry<String, FavoriteEntry> entry : collection.entrySet()) {
+                Fractal fractal;
+
+                try {
+                    fractal = Fractal.fromData(entry.getValue().fractal);
+                } catch(MeelanException e) {
+                    Assert.assertTrue(entry.getKey(), result.failures.containsKey(entry.getKey()));
+                    continue;
+                }
+
+                Assert.assertArrayEquals(entry.getKey(), fractal.code(), result.fractals.get(entry.getKey()).code());
+            }
+
+            Assert.assertFalse(result.fractals.isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private void assertCount(int count) {
         Assert.assertEquals(count, collection.size());
     }
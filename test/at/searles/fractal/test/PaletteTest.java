@@ -2,10 +2,14 @@ package at.searles.fractal.test;
 
 import at.searles.fractal.Fractal;
 import at.searles.fractal.data.FractalData;
+import at.searles.fractal.vm.PaletteFunction;
+import at.searles.fractal.vm.PaletteTable;
+import at.searles.math.color.Palette;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.Random;
 
 public class PaletteTest {
     @Test
@@ -22,4 +26,51 @@ public class PaletteTest {
 
         Assert.assertNotNull(code);
     }
+
+    @Test
+    public void paletteTablesAreSharedTest() {
+        String source = "extern lakepalette palette = [[#000, #f00, #ff0]];" +
+                "var x = lakepalette (1:1)";
+
+        Fractal f1 = Fractal.fromData(new FractalData.Builder().setSource(source).commit());
+        Fractal f2 = Fractal.fromData(new FractalData.Builder().setSource(source).commit());
+
+        Assert.assertEquals(1, f1.paletteTables().size());
+        Assert.assertSame(f1.paletteTables().get(0), f2.paletteTables().get(0));
+    }
+
+    @Test
+    public void paletteTableAccuracyTest() {
+        Palette palette = new Palette(4, 2, new int[]{
+                0xff000000, 0xffff0000, 0xffffff00, 0xff0000ff,
+                0xffffffff, 0xff00ff88, 0xff880088, 0xff000000});
+
+        PaletteTable table = PaletteTable.get(palette);
+        PaletteFunction function = new PaletteFunction(palette);
+
+        double[] expected = new double[8];
+        double[] actual = new double[8];
+
+        Random random = new Random(42);
+
+        for(int i = 0; i < 10000; ++i) {
+            double x = (random.nextDouble() - 0.5) * 20;
+            double y = (random.nextDouble() - 0.5) * 20;
+
+            function.lab(x, y, expected, 0);
+            table.lab(x, y, actual, 0);
+
+            for(int k = 0; k < 8; k += 2) {
+                // the nearest sample alone is off by about 1 in steep segments.
+                Assert.assertEquals(expected[k], actual[k], 0.5);
+            }
+
+            int e = function.argb(x, y);
+            int a = table.argb(x, y);
+
+            for(int shift = 0; shift < 32; shift += 8) {
+                Assert.assertEquals(e >>> shift & 0xff, a >>> shift & 0xff, 2);
+            }
+        }
+    }
 }
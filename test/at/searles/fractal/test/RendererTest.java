@@ -0,0 +1,242 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.render.AdaptiveAntialiasing;
+import at.searles.fractal.render.IntBitmap;
+import at.searles.fractal.render.MappedBitmap;
+import at.searles.fractal.render.SubdivisionRenderer;
+import at.searles.fractal.render.TiledRenderer;
+import at.searles.fractal.render.ZoomAnimation;
+import at.searles.fractal.vm.ExecutionMode;
+import at.searles.fractal.vm.ExecutorFactory;
+import at.searles.fractal.vm.Interpreter;
+import at.searles.fractal.vm.Program;
+import at.searles.fractal.vm.ScaleMapping;
+import at.searles.math.Scale;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RendererTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+
+    private Program program;
+
+    @Test
+    public void testTiledRendererEqualsSequential() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program).render(bitmap);
+
+        Interpreter interpreter = new Interpreter(program);
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                Assert.assertEquals(interpreter.execute(x, y), bitmap.pixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testLanesEqualsInterpreted() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program, ForkJoinPool.commonPool(), ExecutionMode.Lanes).render(bitmap);
+
+        Interpreter interpreter = new Interpreter(program);
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                Assert.assertEquals(interpreter.execute(x, y), bitmap.pixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testSubdivisionAlmostEqualsSequential() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new SubdivisionRenderer(program).render(bitmap);
+
+        Interpreter interpreter = new Interpreter(program);
+
+        int equal = 0;
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                if(interpreter.execute(x, y) == bitmap.pixel(x, y)) {
+                    equal++;
+                }
+            }
+        }
+
+        // thin structures inside uniform rectangles might be lost.
+        Assert.assertTrue(equal > WIDTH * HEIGHT * 99 / 100);
+    }
+
+    @Test
+    public void testAntialiasingOnlyTouchesEdges() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program).render(bitmap);
+
+        int[] original = bitmap.pixels().clone();
+
+        int count = new AdaptiveAntialiasing(program).apply(bitmap);
+
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue(count < WIDTH * HEIGHT / 2);
+
+        int changed = 0;
+
+        for(int i = 0; i < original.length; ++i) {
+            if(original[i] != bitmap.pixels()[i]) {
+                changed++;
+            }
+        }
+
+        Assert.assertTrue(changed <= count);
+    }
+
+    @Test
+    public void testStreamedPngEqualsBitmap() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        TiledRenderer renderer = new TiledRenderer(program);
+        renderer.render(bitmap);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.renderPng(out);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                Assert.assertEquals(bitmap.pixel(x, y), image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testMappedBitmapEqualsIntBitmap() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program).render(bitmap);
+
+        Path file = Files.createTempFile("fractal", ".argb");
+
+        try {
+            try(MappedBitmap mapped = MappedBitmap.create(file, WIDTH, HEIGHT)) {
+                new TiledRenderer(program).render(mapped);
+            }
+
+            try(MappedBitmap mapped = MappedBitmap.open(file, WIDTH, HEIGHT)) {
+                for(int y = 0; y < HEIGHT; ++y) {
+                    for(int x = 0; x < WIDTH; ++x) {
+                        Assert.assertEquals(bitmap.pixel(x, y), mapped.pixel(x, y));
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testZoomAnimationFrames() throws IOException {
+        withSourceFile("assets/sources/v3/Default.fv");
+
+        Scale start = program.mapping().scale;
+        Scale end = new Scale(start.xx / 4, start.xy / 4, start.yx / 4, start.yy / 4, -0.5, 0.1);
+
+        List<Scale> scales = ZoomAnimation.interpolate(Arrays.asList(start, end), 10);
+        Assert.assertEquals(11, scales.size());
+
+        List<Integer> indices = new ArrayList<>();
+        IntBitmap[] frames = new IntBitmap[scales.size()];
+
+        // evaluated pixels per frame. Each frame has its own program.
+        Map<Scale, AtomicInteger> evaluated = Collections.synchronizedMap(new IdentityHashMap<>());
+
+        ExecutorFactory counting = frameProgram -> {
+            AtomicInteger count = evaluated.computeIfAbsent(frameProgram.mapping().scale, scale -> new AtomicInteger());
+            Interpreter interpreter = new Interpreter(frameProgram);
+
+            return (x, y) -> {
+                count.incrementAndGet();
+                return interpreter.execute(x, y);
+            };
+        };
+
+        new ZoomAnimation(program, scales, ForkJoinPool.commonPool(), counting,
+                ZoomAnimation.DEFAULT_LOOK_AHEAD, ZoomAnimation.DEFAULT_TOLERANCE).render((index, frame) -> {
+            indices.add(index);
+            frames[index] = frame;
+        });
+
+        Assert.assertEquals(scales.size(), indices.size());
+
+        for(int i = 0; i < indices.size(); ++i) {
+            Assert.assertEquals(i, (int) indices.get(i));
+        }
+
+        // the first frame is evaluated completely.
+        IntBitmap bitmap = new IntBitmap(WIDTH, HEIGHT);
+        new TiledRenderer(program).render(bitmap);
+
+        Assert.assertArrayEquals(bitmap.pixels(), frames[0].pixels());
+        Assert.assertEquals(WIDTH * HEIGHT, evaluated.get(scales.get(0)).get());
+
+        for(int i = 1; i < scales.size(); ++i) {
+            Assert.assertTrue(evaluated.get(scales.get(i)).get() < WIDTH * HEIGHT);
+
+            IntBitmap expected = new IntBitmap(WIDTH, HEIGHT);
+            new TiledRenderer(program.withMapping(new ScaleMapping(scales.get(i), WIDTH, HEIGHT))).render(expected);
+
+            // copied pixels are sampled up to half a pixel off their center.
+            Assert.assertTrue(meanChannelDifference(expected, frames[i]) < 16);
+        }
+    }
+
+    private static double meanChannelDifference(IntBitmap a, IntBitmap b) {
+        long sum = 0;
+
+        int[] p = a.pixels(), q = b.pixels();
+
+        for(int i = 0; i < p.length; ++i) {
+            for(int shift = 0; shift < 24; shift += 8) {
+                sum += Math.abs((p[i] >>> shift & 0xff) - (q[i] >>> shift & 0xff));
+            }
+        }
+
+        return sum / (3. * p.length);
+    }
+
+    private void withSourceFile(String filename) throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile(filename));
+        program = Program.load(fractal, WIDTH, HEIGHT);
+    }
+}
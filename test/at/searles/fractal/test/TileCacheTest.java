@@ -0,0 +1,93 @@
+package at.searles.fractal.test;
+
+import at.searles.fractal.Fractal;
+import at.searles.fractal.render.CachingRenderer;
+import at.searles.fractal.render.IntBitmap;
+import at.searles.fractal.render.TileCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TileCacheTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 280;
+
+    // 2 x 2 tiles
+    private static final int TILES = 4;
+
+    @Test
+    public void testMemoryTier() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        TileCache cache = new TileCache(1 << 24, null, 0);
+
+        IntBitmap first = new IntBitmap(WIDTH, HEIGHT);
+        Assert.assertEquals(0, new CachingRenderer(fractal, WIDTH, HEIGHT, cache).render(first));
+
+        IntBitmap second = new IntBitmap(WIDTH, HEIGHT);
+        Assert.assertEquals(TILES, new CachingRenderer(fractal, WIDTH, HEIGHT, cache).render(second));
+
+        Assert.assertArrayEquals(first.pixels(), second.pixels());
+    }
+
+    @Test
+    public void testDiskTier() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        Path directory = Files.createTempDirectory("tiles");
+
+        try {
+            IntBitmap first = new IntBitmap(WIDTH, HEIGHT);
+            new CachingRenderer(fractal, WIDTH, HEIGHT, new TileCache(0, directory, 1 << 24)).render(first);
+
+            // a new cache finds the tiles on disk.
+            IntBitmap second = new IntBitmap(WIDTH, HEIGHT);
+            int hits = new CachingRenderer(fractal, WIDTH, HEIGHT, new TileCache(0, directory, 1 << 24)).render(second);
+
+            Assert.assertEquals(TILES, hits);
+            Assert.assertArrayEquals(first.pixels(), second.pixels());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testDiskEviction() throws IOException {
+        Fractal fractal = Fractal.fromSource(Utils.readResourceFile("assets/sources/v3/Default.fv"));
+        Path directory = Files.createTempDirectory("tiles");
+
+        try {
+            // room for the largest tile only.
+            long maxBytes = 4L * 256 * 256 + 16;
+            new CachingRenderer(fractal, WIDTH, HEIGHT, new TileCache(0, directory, maxBytes)).render(new IntBitmap(WIDTH, HEIGHT));
+
+            long size = 0;
+            long count;
+
+            try(Stream<Path> files = Files.list(directory)) {
+                count = files.count();
+            }
+
+            try(Stream<Path> files = Files.list(directory)) {
+                for(Path file : (Iterable<Path>) files::iterator) {
+                    size += Files.size(file);
+                }
+            }
+
+            Assert.assertTrue(count < TILES);
+            Assert.assertTrue(size <= maxBytes);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}